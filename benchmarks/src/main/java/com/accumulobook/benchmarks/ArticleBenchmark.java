@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.benchmarks;
+
+import com.accumulobook.basic.WikipediaClient;
+import com.accumulobook.designs.termindex.WikipediaIngestWithIndexExample;
+import info.bliki.wiki.dump.WikiArticle;
+import info.bliki.wiki.filter.PlainTextConverter;
+import info.bliki.wiki.model.WikiModel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The per article work done by the ingest filters: rendering wiki markup
+ * and building article and index mutations, over the Olympics dataset.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ArticleBenchmark {
+
+  private List<WikiArticle> articles;
+  private List<String> plaintexts;
+  private WikiModel model;
+  private PlainTextConverter converter;
+
+  @Setup
+  public void setup() throws Exception {
+    OlympicsDataset dataset = OlympicsDataset.load();
+    articles = dataset.articles();
+    plaintexts = dataset.plaintexts();
+    model = new WikiModel("", "");
+    converter = new PlainTextConverter(true);
+  }
+
+  @Benchmark
+  public void render(Blackhole bh) {
+    for (WikiArticle article : articles)
+      bh.consume(WikipediaClient.render(model, converter, article.getText()));
+  }
+
+  @Benchmark
+  public void articleMutation(Blackhole bh) {
+    for (int i = 0; i < articles.size(); i++)
+      bh.consume(WikipediaClient.toMutations(articles.get(i), plaintexts.get(i)));
+  }
+
+  @Benchmark
+  public void indexMutations(Blackhole bh) {
+    for (int i = 0; i < articles.size(); i++)
+      bh.consume(WikipediaIngestWithIndexExample.WArticleFilter.indexMutations(articles.get(i), plaintexts.get(i)));
+  }
+
+  // everything WArticleFilter.process does before handing off to the BatchWriter
+  @Benchmark
+  public void renderAndMutate(Blackhole bh) {
+    for (WikiArticle article : articles)
+      bh.consume(WikipediaClient.toMutations(article, WikipediaClient.render(model, converter, article.getText())));
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.benchmarks;
+
+import com.accumulobook.advanced.RunningAverageCombiner;
+import com.accumulobook.advanced.RunningAverageCombiner.LongDoublePairEncoder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.apache.accumulo.core.iterators.ValueFormatException;
+import org.apache.accumulo.core.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per key reduce cost of RunningAverageCombiner with the binary encoding
+ * against the original "count:sum" string encoding.
+ *
+ * legacy: string values combined with the original string encoder
+ * string: string values read through the binary encoder's fallback path
+ * binary: binary values
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CombinerBenchmark {
+
+  private static final int ROWS = 1000;
+  private static final Collection<ByteSequence> NO_FAMILIES = Collections.emptySet();
+
+  @Param({"legacy", "string", "binary"})
+  public String format;
+
+  @Param({"2", "20"})
+  public int versions;
+
+  private TreeMap<Key, Value> data;
+  private Map<String, String> options;
+
+  /**
+   * The encoder RunningAverageCombiner used before the binary format
+   */
+  public static class StringPairEncoder extends LongDoublePairEncoder {
+
+    @Override
+    public byte[] encode(Pair<Long, Double> v) {
+      String s = Long.toString(v.getFirst()) + ":" + Double.toString(v.getSecond());
+      return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Pair<Long, Double> decode(byte[] b) throws ValueFormatException {
+      String s = new String(b, StandardCharsets.UTF_8);
+      String[] parts = s.split(":");
+      return new Pair<>(Long.parseLong(parts[0]), Double.parseDouble(parts[1]));
+    }
+  }
+
+  public static class StringRunningAverageCombiner extends RunningAverageCombiner {
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+      super.init(source, options, env);
+      setEncoder(new StringPairEncoder());
+    }
+  }
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    LongDoublePairEncoder encoder = format.equals("binary") ? new LongDoublePairEncoder() : new StringPairEncoder();
+
+    data = new TreeMap<>();
+    for (int r = 0; r < ROWS; r++) {
+      String row = String.format("row%05d", r);
+      for (int v = 0; v < versions; v++) {
+        Pair<Long, Double> partial = new Pair<>(1L + random.nextInt(10), random.nextDouble() * 100);
+        data.put(new Key(row, "", "average", v), new Value(encoder.encode(partial)));
+      }
+    }
+
+    IteratorSetting setting = new IteratorSetting(10, "rac", RunningAverageCombiner.class);
+    RunningAverageCombiner.setCombineAllColumns(setting, true);
+    options = setting.getOptions();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void reducePerKey(Blackhole bh) throws IOException {
+    RunningAverageCombiner combiner = format.equals("legacy")
+            ? new StringRunningAverageCombiner()
+            : new RunningAverageCombiner();
+    combiner.init(new SortedMapIterator(data), options, null);
+
+    combiner.seek(new Range(), NO_FAMILIES, false);
+    while (combiner.hasTop()) {
+      bh.consume(combiner.getTopValue());
+      combiner.next();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.benchmarks;
+
+import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.WikipediaConstants;
+import com.accumulobook.designs.termindex.WikipediaIngestWithIndexExample;
+import java.util.concurrent.TimeUnit;
+import org.apache.accumulo.core.client.Connector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end ingest of the Olympics dataset with term and date indexing
+ * into a MiniAccumuloCluster. Each iteration starts from empty tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IngestBenchmark {
+
+  private Connector conn;
+  private String dump;
+
+  @Setup(Level.Trial)
+  public void startCluster() throws Exception {
+    dump = OlympicsDataset.locate();
+    conn = ExampleMiniCluster.getConnector();
+  }
+
+  @Setup(Level.Iteration)
+  public void dropTables() throws Exception {
+    for (String table : new String[]{
+      WikipediaConstants.ARTICLES_TABLE, WikipediaConstants.INDEX_TABLE, WikipediaConstants.INDEX_STATS_TABLE}) {
+      if (conn.tableOperations().exists(table))
+        conn.tableOperations().delete(table);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void stopCluster() throws Exception {
+    ExampleMiniCluster.shutdown();
+  }
+
+  @Benchmark
+  public void ingestWithIndex() throws Exception {
+    WikipediaIngestWithIndexExample.ingest(conn, dump);
+  }
+}
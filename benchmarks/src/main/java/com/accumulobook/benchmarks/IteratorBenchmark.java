@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.benchmarks;
+
+import com.accumulobook.advanced.FirstColumnIterator;
+import com.accumulobook.advanced.GreaterThanFilterExample;
+import com.accumulobook.advanced.RunningAverageCombiner;
+import com.accumulobook.advanced.RunningAverageCombiner.LongDoublePairEncoder;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.apache.accumulo.core.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The example iterators running over an in-memory SortedMapIterator, so
+ * only the iterator's own work is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IteratorBenchmark {
+
+  private static final int ROWS = 1000;
+  private static final int COLUMNS = 20;
+  private static final int VERSIONS = 20;
+
+  private static final Collection<ByteSequence> NO_FAMILIES = Collections.emptySet();
+
+  // ROWS keys, each with VERSIONS partial averages to combine
+  private TreeMap<Key, Value> averages;
+  // ROWS x COLUMNS numeric cells
+  private TreeMap<Key, Value> numbers;
+
+  private Map<String, String> combinerOptions;
+  private Map<String, String> filterOptions;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    LongDoublePairEncoder encoder = new LongDoublePairEncoder();
+
+    averages = new TreeMap<>();
+    numbers = new TreeMap<>();
+
+    for (int r = 0; r < ROWS; r++) {
+      String row = String.format("row%05d", r);
+
+      for (int v = 0; v < VERSIONS; v++) {
+        Pair<Long, Double> partial = new Pair<>(1L, random.nextDouble() * 2 + 4.5);
+        averages.put(new Key(row, "", "average", v), new Value(encoder.encode(partial)));
+      }
+
+      for (int c = 0; c < COLUMNS; c++) {
+        numbers.put(new Key(row, "", String.format("col%02d", c)), new Value(Integer.toString(random.nextInt(100)).getBytes()));
+      }
+    }
+
+    IteratorSetting combinerSetting = new IteratorSetting(10, "rac", RunningAverageCombiner.class);
+    RunningAverageCombiner.setCombineAllColumns(combinerSetting, true);
+    combinerOptions = combinerSetting.getOptions();
+
+    IteratorSetting filterSetting = new IteratorSetting(15, "gtf", GreaterThanFilterExample.class);
+    GreaterThanFilterExample.setThreshold(filterSetting, 80);
+    filterOptions = filterSetting.getOptions();
+  }
+
+  private static void drain(SortedKeyValueIterator<Key, Value> iter, Blackhole bh) throws IOException {
+    iter.seek(new Range(), NO_FAMILIES, false);
+    while (iter.hasTop()) {
+      bh.consume(iter.getTopKey());
+      bh.consume(iter.getTopValue());
+      iter.next();
+    }
+  }
+
+  @Benchmark
+  public void scanBaseline(Blackhole bh) throws IOException {
+    drain(new SortedMapIterator(numbers), bh);
+  }
+
+  @Benchmark
+  public void combinerReduce(Blackhole bh) throws IOException {
+    RunningAverageCombiner combiner = new RunningAverageCombiner();
+    combiner.init(new SortedMapIterator(averages), combinerOptions, null);
+    drain(combiner, bh);
+  }
+
+  @Benchmark
+  public void filterAccept(Blackhole bh) throws IOException {
+    GreaterThanFilterExample filter = new GreaterThanFilterExample();
+    filter.init(new SortedMapIterator(numbers), new HashMap<>(filterOptions), null);
+    for (Map.Entry<Key, Value> e : numbers.entrySet())
+      bh.consume(filter.accept(e.getKey(), e.getValue()));
+  }
+
+  @Benchmark
+  public void filterScan(Blackhole bh) throws IOException {
+    GreaterThanFilterExample filter = new GreaterThanFilterExample();
+    filter.init(new SortedMapIterator(numbers), new HashMap<>(filterOptions), null);
+    drain(filter, bh);
+  }
+
+  @Benchmark
+  public void firstColumnScan(Blackhole bh) throws IOException {
+    FirstColumnIterator iter = new FirstColumnIterator();
+    iter.init(new SortedMapIterator(numbers), Collections.<String, String>emptyMap(), null);
+    drain(iter, bh);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.benchmarks;
+
+import com.accumulobook.designs.lexicoder.Inet4AddressLexicoder;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.accumulo.core.client.lexicoder.DateLexicoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encode and decode cost of the lexicoders used for row keys
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LexicoderBenchmark {
+
+  private static final int SIZE = 1000;
+
+  private final Inet4AddressLexicoder inetLexicoder = new Inet4AddressLexicoder();
+  private final DateLexicoder dateLexicoder = new DateLexicoder();
+
+  private Inet4Address[] addresses;
+  private byte[][] encodedAddresses;
+  private Date[] dates;
+  private byte[][] encodedDates;
+
+  @Setup
+  public void setup() throws Exception {
+    Random random = new Random(42);
+
+    addresses = new Inet4Address[SIZE];
+    encodedAddresses = new byte[SIZE][];
+    dates = new Date[SIZE];
+    encodedDates = new byte[SIZE][];
+
+    for (int i = 0; i < SIZE; i++) {
+      byte[] addr = new byte[4];
+      random.nextBytes(addr);
+      addresses[i] = (Inet4Address) InetAddress.getByAddress(addr);
+      encodedAddresses[i] = inetLexicoder.encode(addresses[i]);
+
+      dates[i] = new Date(Math.abs(random.nextLong()) % 2000000000000L);
+      encodedDates[i] = dateLexicoder.encode(dates[i]);
+    }
+  }
+
+  @Benchmark
+  public void inet4Encode(Blackhole bh) {
+    for (Inet4Address a : addresses)
+      bh.consume(inetLexicoder.encode(a));
+  }
+
+  @Benchmark
+  public void inet4Decode(Blackhole bh) {
+    for (byte[] b : encodedAddresses)
+      bh.consume(inetLexicoder.decode(b));
+  }
+
+  @Benchmark
+  public void dateEncode(Blackhole bh) {
+    for (Date d : dates)
+      bh.consume(dateLexicoder.encode(d));
+  }
+
+  @Benchmark
+  public void dateDecode(Blackhole bh) {
+    for (byte[] b : encodedDates)
+      bh.consume(dateLexicoder.decode(b));
+  }
+}
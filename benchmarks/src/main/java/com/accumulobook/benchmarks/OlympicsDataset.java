@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.benchmarks;
+
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+import info.bliki.wiki.dump.WikiXMLParser;
+import info.bliki.wiki.filter.PlainTextConverter;
+import info.bliki.wiki.model.WikiModel;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import org.xml.sax.SAXException;
+
+/**
+ * The articles in data/WikipediaOlympics.xml, parsed and rendered once so
+ * benchmarks measure only the code under test.
+ *
+ * The dump location can be overridden with -Dwikipedia.dump=path
+ */
+public class OlympicsDataset {
+
+  private static final String[] DEFAULT_LOCATIONS = {
+    "data/WikipediaOlympics.xml",
+    "../data/WikipediaOlympics.xml"};
+
+  private final List<WikiArticle> articles = new ArrayList<>();
+  private final List<String> plaintexts = new ArrayList<>();
+  private final String path;
+
+  private OlympicsDataset(String path) {
+    this.path = path;
+  }
+
+  public static String locate() throws FileNotFoundException {
+
+    String configured = System.getProperty("wikipedia.dump");
+    if (configured != null)
+      return configured;
+
+    for (String location : DEFAULT_LOCATIONS) {
+      if (new File(location).exists())
+        return location;
+    }
+
+    throw new FileNotFoundException("WikipediaOlympics.xml not found, set -Dwikipedia.dump");
+  }
+
+  public static OlympicsDataset load() throws Exception {
+
+    final OlympicsDataset dataset = new OlympicsDataset(locate());
+    final WikiModel model = new WikiModel("", "");
+    final PlainTextConverter converter = new PlainTextConverter(true);
+
+    new WikiXMLParser(dataset.path, new IArticleFilter() {
+      @Override
+      public void process(WikiArticle article, Siteinfo info) throws SAXException {
+        dataset.articles.add(article);
+        dataset.plaintexts.add(model.render(converter, article.getText())
+                .replace("{{", " ")
+                .replace("}}", " "));
+      }
+    }).parse();
+
+    return dataset;
+  }
+
+  public String path() {
+    return path;
+  }
+
+  public List<WikiArticle> articles() {
+    return articles;
+  }
+
+  public List<String> plaintexts() {
+    return plaintexts;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.benchmarks;
+
+import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.designs.termindex.WikipediaIngestWithIndexExample;
+import com.accumulobook.designs.termindex.WikipediaQuery;
+import com.google.common.io.ByteStreams;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.apache.accumulo.core.client.Connector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WikipediaQuery against a MiniAccumuloCluster loaded once with the
+ * Olympics dataset. Query output is discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class QueryBenchmark {
+
+  private WikipediaQuery query;
+  private PrintStream stdout;
+  private Date start;
+  private Date stop;
+
+  @Setup(Level.Trial)
+  public void load() throws Exception {
+    Connector conn = ExampleMiniCluster.getConnector();
+    WikipediaIngestWithIndexExample.ingest(conn, OlympicsDataset.locate());
+
+    query = new WikipediaQuery(conn);
+
+    SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+    start = df.parse("2013-01-01");
+    stop = df.parse("2014-01-01");
+
+    stdout = System.out;
+    System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+  }
+
+  @TearDown(Level.Trial)
+  public void stopCluster() throws Exception {
+    System.setOut(stdout);
+    ExampleMiniCluster.shutdown();
+  }
+
+  @Benchmark
+  public void singleTerm() throws Exception {
+    query.querySingleTerm("olympic");
+  }
+
+  @Benchmark
+  public void multipleTerms() throws Exception {
+    query.queryMultipleTerms("olympic", "medal", "athletes", "games", "summer");
+  }
+
+  @Benchmark
+  public void dateRange() throws Exception {
+    query.queryDateRange(start, stop);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.benchmarks;
+
+import com.accumulobook.TextTokenizer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenize every article of the Olympics dataset, comparing TextTokenizer
+ * with the replace/toLowerCase/split chains the indexers used before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TokenizerBenchmark {
+
+  private List<String> plaintexts;
+  private TextTokenizer indexTokenizer;
+  private TextTokenizer wordCountTokenizer;
+
+  @Setup
+  public void setup() throws Exception {
+    plaintexts = OlympicsDataset.load().plaintexts();
+    indexTokenizer = TextTokenizer.forIndex();
+    wordCountTokenizer = TextTokenizer.forWordCount();
+  }
+
+  @Benchmark
+  public void indexTermsSplit(Blackhole bh) {
+    for (String plaintext : plaintexts) {
+      HashSet<String> tokens = new HashSet<>();
+      for (String token : plaintext.replace("\"", "").toLowerCase().split("\\s+")) {
+        if (token.length() >= 2)
+          tokens.add(token);
+      }
+      bh.consume(tokens);
+    }
+  }
+
+  @Benchmark
+  public void indexTermsTokenizer(Blackhole bh) {
+    for (String plaintext : plaintexts) {
+      HashSet<String> tokens = new HashSet<>();
+      indexTokenizer.reset(plaintext);
+      while (indexTokenizer.next())
+        tokens.add(indexTokenizer.token());
+      bh.consume(tokens);
+    }
+  }
+
+  @Benchmark
+  public void wordCountSplit(Blackhole bh) {
+    for (String plaintext : plaintexts) {
+      HashMap<String, Integer> counts = new HashMap<>();
+      for (String word : plaintext.replaceAll("[^a-zA-Z ]", " ").toLowerCase().split("\\s+")) {
+        Integer c = counts.get(word);
+        counts.put(word, c == null ? 1 : c + 1);
+      }
+      bh.consume(counts);
+    }
+  }
+
+  @Benchmark
+  public void wordCountTokenizer(Blackhole bh) {
+    for (String plaintext : plaintexts) {
+      HashMap<String, Integer> counts = new HashMap<>();
+      wordCountTokenizer.reset(plaintext);
+      while (wordCountTokenizer.next()) {
+        String word = wordCountTokenizer.token();
+        Integer c = counts.get(word);
+        counts.put(word, c == null ? 1 : c + 1);
+      }
+      bh.consume(counts);
+    }
+  }
+
+  // token bytes only, no per token allocation
+  @Benchmark
+  public void tokenBytesTokenizer(Blackhole bh) {
+    for (String plaintext : plaintexts) {
+      indexTokenizer.reset(plaintext);
+      while (indexTokenizer.next())
+        bh.consume(indexTokenizer.byteLength());
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook;
+
+/**
+ * Splits text into lowercase tokens in a single pass without regular
+ * expressions or copies of the input.
+ *
+ * Tokens are separated by whitespace, or by any non letter when lettersOnly
+ * is set. The current token is held in a reusable char buffer, and can be
+ * read as UTF-8 from a reusable byte buffer, so callers that don't need a
+ * String for every token allocate nothing per token.
+ *
+ * A tokenizer is not thread safe; use one per thread and call reset() for
+ * each new piece of text.
+ *
+ * <pre>
+ * TextTokenizer tokenizer = TextTokenizer.forIndex().reset(text);
+ * while (tokenizer.next()) {
+ *   String token = tokenizer.token();
+ *   ...
+ * }
+ * </pre>
+ */
+public class TextTokenizer {
+
+  private final int minLength;
+  private final boolean stripQuotes;
+  private final boolean lettersOnly;
+
+  private CharSequence text;
+  private int pos;
+  private int position;
+  private int tokenStart;
+  private int tokenEnd;
+
+  private char[] chars = new char[64];
+  private int length;
+
+  private byte[] bytes = new byte[64];
+  private int byteLength = -1;
+
+  /**
+   *
+   * @param minLength tokens shorter than this are skipped
+   * @param stripQuotes drop double quotes rather than treating them as part of a token
+   * @param lettersOnly treat anything other than a-z and A-Z as a separator
+   */
+  public TextTokenizer(final int minLength, final boolean stripQuotes, final boolean lettersOnly) {
+    this.minLength = Math.max(1, minLength);
+    this.stripQuotes = stripQuotes;
+    this.lettersOnly = lettersOnly;
+  }
+
+  /**
+   * Rules used by the term index: whitespace separated, quotes removed,
+   * single characters skipped
+   */
+  public static TextTokenizer forIndex() {
+    return new TextTokenizer(2, true, false);
+  }
+
+  /**
+   * Rules used by the document partitioned index: whitespace separated
+   */
+  public static TextTokenizer forPartitionedIndex() {
+    return new TextTokenizer(1, false, false);
+  }
+
+  /**
+   * Rules used for word counts: runs of letters only
+   */
+  public static TextTokenizer forWordCount() {
+    return new TextTokenizer(1, false, true);
+  }
+
+  /**
+   * Start tokenizing a new piece of text
+   *
+   * @param text
+   * @return this tokenizer
+   */
+  public TextTokenizer reset(final CharSequence text) {
+    this.text = text;
+    this.pos = 0;
+    this.position = -1;
+    this.length = 0;
+    this.byteLength = -1;
+    return this;
+  }
+
+  /**
+   * Advance to the next token
+   *
+   * @return false when the text is exhausted
+   */
+  public boolean next() {
+
+    final int end = text.length();
+
+    while (pos < end) {
+      length = 0;
+      byteLength = -1;
+      tokenStart = pos;
+      tokenEnd = end;
+
+      // collect one token
+      while (pos < end) {
+        char c = text.charAt(pos++);
+
+        if (isSeparator(c)) {
+          tokenEnd = pos - 1;
+          break;
+        }
+
+        if (stripQuotes && c == '"')
+          continue;
+
+        if (length == chars.length) {
+          char[] grown = new char[chars.length * 2];
+          System.arraycopy(chars, 0, grown, 0, length);
+          chars = grown;
+        }
+        chars[length++] = Character.toLowerCase(c);
+      }
+
+      if (length > 0)
+        position++;
+
+      if (length >= minLength)
+        return true;
+    }
+
+    length = 0;
+    return false;
+  }
+
+  private boolean isSeparator(final char c) {
+    if (lettersOnly)
+      return !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'));
+
+    // the same set as the regex \s
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+  }
+
+  /**
+   * @return buffer holding the current token, valid until the next call to next()
+   */
+  public char[] chars() {
+    return chars;
+  }
+
+  /**
+   * @return number of chars in the current token
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * @return ordinal of the current token among all tokens in the text,
+   * including those skipped for being too short
+   */
+  public int position() {
+    return position;
+  }
+
+  /**
+   * @return offset in the text of the first char of the current token
+   */
+  public int start() {
+    return tokenStart;
+  }
+
+  /**
+   * @return offset in the text just past the current token
+   */
+  public int end() {
+    return tokenEnd;
+  }
+
+  /**
+   * @return the current token as a new String
+   */
+  public String token() {
+    return new String(chars, 0, length);
+  }
+
+  /**
+   * @return buffer holding the current token encoded as UTF-8, valid until
+   * the next call to next()
+   */
+  public byte[] bytes() {
+    encode();
+    return bytes;
+  }
+
+  /**
+   * @return number of bytes of the current token in bytes()
+   */
+  public int byteLength() {
+    encode();
+    return byteLength;
+  }
+
+  private void encode() {
+
+    if (byteLength >= 0)
+      return;
+
+    if (bytes.length < length * 3)
+      bytes = new byte[length * 3];
+
+    int b = 0;
+    for (int i = 0; i < length; i++) {
+      char c = chars[i];
+
+      if (c < 0x80) {
+        bytes[b++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[b++] = (byte) (0xC0 | (c >> 6));
+        bytes[b++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+        int cp = Character.toCodePoint(c, chars[++i]);
+        bytes[b++] = (byte) (0xF0 | (cp >> 18));
+        bytes[b++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        bytes[b++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        bytes[b++] = (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate, encode as '?' like String.getBytes does
+        bytes[b++] = '?';
+      } else {
+        bytes[b++] = (byte) (0xE0 | (c >> 12));
+        bytes[b++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[b++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+
+    byteLength = b;
+  }
+}
@@ -24,7 +24,9 @@ public class WikipediaConstants {
   public static final String ARTICLES_TABLE_CLONE = "WikipediaArticlesCloned";
   public static final String WORD_COUNT_TABLE = "WikipediaWordCount";
   public static final String INDEX_TABLE = "WikipediaIndex";
+  public static final String INDEX_STATS_TABLE = "WikipediaIndexStats";
   public static final String DOC_PARTITIONED_TABLE = "WikipediaPartitioned";
+  public static final String DOC_PARTITIONED_STATS_TABLE = "WikipediaPartitionedStats";
   
   public static final String ARTICLE_CONTENTS_TOKEN = "contents";
   
@@ -33,6 +35,10 @@ public class WikipediaConstants {
   public static final String METADATA_FAMILY = "metadata";
   public static final Text METADATA_FAMILY_TEXT = new Text(METADATA_FAMILY);
   public static final String INDEX_FAMILY = "index";
+  public static final String DOC_FREQUENCY_FAMILY = "df";
+  public static final String TOTALS_FAMILY = "totals";
+  public static final String DOCUMENTS_ROW = "documents";
+  public static final String TOKENS_ROW = "tokens";
   public static final String NAMESPACE_QUAL = "namespace";
   public static final String TIMESTAMP_QUAL = "timestamp";
   public static final String ID_QUAL = "id";
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook;
+
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+import info.bliki.wiki.dump.WikiXMLParser;
+import info.bliki.wiki.filter.PlainTextConverter;
+import info.bliki.wiki.model.WikiModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableExistsException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.hadoop.io.Text;
+import org.xml.sax.SAXException;
+
+/**
+ * Compute split points for the Wikipedia tables before ingest starts so
+ * that the initial load is spread over all tablet servers rather than
+ * landing on a single tablet.
+ *
+ * Without a sample, splits are spread evenly over the characters titles
+ * and terms usually start with. After sample() has read part of a dump,
+ * splits are placed at quantiles of the sampled titles and of the sampled
+ * term postings.
+ */
+public class WikipediaSplitPlanner {
+
+  public static final int TABLETS_PER_SERVER = 4;
+  public static final int DEFAULT_SAMPLE_SIZE = 1000;
+
+  private static final String TITLE_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+  private static final String TERM_ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+  private static final int MAX_PREFIX = 4;
+
+  private final int numTablets;
+  private final List<String> sampledTitles = new ArrayList<>();
+  private final List<String> sampledTerms = new ArrayList<>();
+
+  // thrown from the article filter to stop parsing once the sample is full
+  private static class SampleComplete extends SAXException {
+  }
+
+  /**
+   *
+   * @param numTablets number of tablets each table should start with
+   */
+  public WikipediaSplitPlanner(final int numTablets) {
+    if (numTablets < 1)
+      throw new IllegalArgumentException("need at least one tablet");
+
+    this.numTablets = numTablets;
+  }
+
+  /**
+   * Plan for a few tablets per live tablet server
+   *
+   * @param conn
+   * @return planner
+   */
+  public static WikipediaSplitPlanner forCluster(final Connector conn) {
+    int servers = conn.instanceOperations().getTabletServers().size();
+    return new WikipediaSplitPlanner(Math.max(1, servers) * TABLETS_PER_SERVER);
+  }
+
+  /**
+   * Read up to maxArticles articles from the start of a dump, recording
+   * titles and the terms they would be indexed under
+   *
+   * @param filename
+   * @param maxArticles
+   * @throws Exception
+   */
+  public void sample(final String filename, final int maxArticles) throws Exception {
+
+    final WikiModel model = new WikiModel("", "");
+    final PlainTextConverter converter = new PlainTextConverter(true);
+    final TextTokenizer tokenizer = TextTokenizer.forIndex();
+
+    IArticleFilter sampler = new IArticleFilter() {
+      private int count = 0;
+
+      @Override
+      public void process(WikiArticle article, Siteinfo info) throws SAXException {
+        if (count++ >= maxArticles)
+          throw new SampleComplete();
+
+        sampledTitles.add(article.getTitle());
+
+        String plaintext = model.render(converter, article.getText())
+                .replace("{{", " ")
+                .replace("}}", " ");
+
+        // one posting per distinct term per article, as the index writes them
+        HashSet<String> tokens = new HashSet<>();
+        tokenizer.reset(plaintext);
+        while (tokenizer.next()) {
+          tokens.add(tokenizer.token());
+        }
+        sampledTerms.addAll(tokens);
+      }
+    };
+
+    try {
+      new WikiXMLParser(filename, sampler).parse();
+    } catch (SampleComplete e) {
+      // read as much as we wanted
+    }
+  }
+
+  /**
+   * @return split points for the articles table, on title prefixes
+   */
+  public SortedSet<Text> articleSplits() {
+    if (sampledTitles.isEmpty())
+      return uniformSplits(TITLE_ALPHABET, numTablets);
+
+    return quantileSplits(sampledTitles, numTablets);
+  }
+
+  /**
+   * @return split points for the term index table, on term prefixes
+   */
+  public SortedSet<Text> indexSplits() {
+    if (sampledTerms.isEmpty())
+      return uniformSplits(TERM_ALPHABET, numTablets);
+
+    return quantileSplits(sampledTerms, numTablets);
+  }
+
+  /**
+   * One tablet per shard of a document partitioned table whose rows are
+   * the shard IDs 0 .. numPartitions - 1
+   *
+   * @param numPartitions
+   * @return split points
+   */
+  public static SortedSet<Text> partitionSplits(final int numPartitions) {
+    TreeSet<Text> splits = new TreeSet<>();
+    for (int i = 0; i < numPartitions; i++)
+      splits.add(new Text(Integer.toString(i)));
+
+    // the last shard's tablet extends to the end of the table
+    if (!splits.isEmpty())
+      splits.remove(splits.last());
+
+    return splits;
+  }
+
+  /**
+   * Create a table and add splits to it. Existing tables are left alone so
+   * we never re-split a table that is already serving data.
+   *
+   * @param conn
+   * @param table
+   * @param splits
+   * @return true if the table was created
+   * @throws AccumuloException
+   * @throws AccumuloSecurityException
+   * @throws TableExistsException
+   * @throws TableNotFoundException
+   */
+  public static boolean createTable(
+          final Connector conn,
+          final String table,
+          final SortedSet<Text> splits) throws
+          AccumuloException,
+          AccumuloSecurityException,
+          TableExistsException,
+          TableNotFoundException {
+
+    if (conn.tableOperations().exists(table))
+      return false;
+
+    conn.tableOperations().create(table);
+    if (!splits.isEmpty())
+      conn.tableOperations().addSplits(table, splits);
+
+    return true;
+  }
+
+  private static SortedSet<Text> quantileSplits(final List<String> sample, final int numTablets) {
+
+    List<String> sorted = new ArrayList<>(sample);
+    Collections.sort(sorted);
+
+    TreeSet<Text> splits = new TreeSet<>();
+    for (int i = 1; i < numTablets; i++) {
+      String key = sorted.get((int) ((long) i * sorted.size() / numTablets));
+
+      // keep splits short, they end up in the metadata table
+      splits.add(new Text(key.substring(0, Math.min(MAX_PREFIX, key.length()))));
+    }
+
+    return splits;
+  }
+
+  private static SortedSet<Text> uniformSplits(final String alphabet, final int numTablets) {
+
+    int n = alphabet.length();
+    TreeSet<Text> splits = new TreeSet<>();
+
+    // use two character prefixes so we can go beyond one tablet per character
+    for (int i = 1; i < numTablets; i++) {
+      int pos = (int) ((long) i * n * n / numTablets);
+      splits.add(new Text("" + alphabet.charAt(pos / n) + alphabet.charAt(pos % n)));
+    }
+
+    return splits;
+  }
+}
@@ -61,16 +61,15 @@ public class CustomCombinerExample {
     
     // begin writing numbers to our table
     Random random = new Random();
+    LongDoublePairEncoder enc = new LongDoublePairEncoder();
     
     for(int i = 0; i < 5; i++) {
       Mutation m = new Mutation("heights");
-      m.put("", "average", "1:" + (random.nextDouble() * 2 + 4.5));
+      m.put("", "average", new Value(enc.encode(new Pair<>(1L, random.nextDouble() * 2 + 4.5))));
       writer.addMutation(m);
     }
     writer.flush();
     
-    LongDoublePairEncoder enc = new LongDoublePairEncoder();
-    
     Scanner scanner = conn.createScanner("testTable", Authorizations.EMPTY);
     for(Map.Entry<Key, Value> e : scanner) {
       Pair<Long,Double> pair = enc.decode(e.getValue().get());
@@ -81,7 +80,7 @@ public class CustomCombinerExample {
     
     for(int i = 0; i < 100; i++) {
       Mutation m = new Mutation("heights");
-      m.put("", "average", "1:" + (random.nextDouble() * 2 + 4.5));
+      m.put("", "average", new Value(enc.encode(new Pair<>(1L, random.nextDouble() * 2 + 4.5))));
       writer.addMutation(m);
     }
     writer.flush();
@@ -59,20 +59,91 @@ public class RunningAverageCombiner extends TypedValueCombiner<Pair<Long,Double>
     return new Pair<>(count, sum);
   }
   
+  /**
+   * Encodes a count and sum as a marker byte, the count as an unsigned
+   * varint and the sum as the 8 byte IEEE 754 bits of the double.
+   * 
+   * Values written by earlier versions as UTF-8 "count:sum" strings are
+   * still decoded, so tables can be migrated by compaction.
+   */
   public static class LongDoublePairEncoder implements Encoder<Pair<Long,Double>> {
 
+    // string encoded values always start with a digit or '-'
+    public static final byte BINARY_FORMAT = 0x01;
+    
     @Override
     public byte[] encode(Pair<Long, Double> v) {
-       String s = Long.toString(v.getFirst()) + ":" + Double.toString(v.getSecond());
-
-      return s.getBytes(StandardCharsets.UTF_8);
+      long count = v.getFirst();
+      if (count < 0)
+        throw new IllegalArgumentException("negative count " + count);
+      
+      byte[] b = new byte[1 + varintLength(count) + 8];
+      b[0] = BINARY_FORMAT;
+      
+      int i = 1;
+      while ((count & ~0x7FL) != 0) {
+        b[i++] = (byte) ((count & 0x7F) | 0x80);
+        count >>>= 7;
+      }
+      b[i++] = (byte) count;
+      
+      long bits = Double.doubleToLongBits(v.getSecond());
+      for (int shift = 56; shift >= 0; shift -= 8)
+        b[i++] = (byte) (bits >>> shift);
+      
+      return b;
     }
 
     @Override
     public Pair<Long, Double> decode(byte[] b) throws ValueFormatException {
+      if (b.length == 0)
+        throw new ValueFormatException("empty value");
+      
+      if (b[0] != BINARY_FORMAT)
+        return decodeString(b);
+      
+      long count = 0;
+      int i = 1;
+      for (int shift = 0; ; shift += 7) {
+        if (i >= b.length || shift > 63)
+          throw new ValueFormatException("bad count in running average value");
+        
+        byte next = b[i++];
+        count |= (long) (next & 0x7F) << shift;
+        if ((next & 0x80) == 0)
+          break;
+      }
+      
+      if (b.length - i != 8)
+        throw new ValueFormatException("bad sum in running average value");
+      
+      long bits = 0;
+      for (; i < b.length; i++)
+        bits = (bits << 8) | (b[i] & 0xFF);
+      
+      return new Pair<>(count, Double.longBitsToDouble(bits));
+    }
+    
+    private static Pair<Long, Double> decodeString(byte[] b) throws ValueFormatException {
       String s = new String(b, StandardCharsets.UTF_8);
-      String[] parts = s.split(":");
-      return new Pair<>(Long.parseLong(parts[0]), Double.parseDouble(parts[1]));
+      int sep = s.indexOf(':');
+      if (sep < 0)
+        throw new ValueFormatException("expected count:sum but got " + s);
+      
+      try {
+        return new Pair<>(Long.parseLong(s.substring(0, sep)), Double.parseDouble(s.substring(sep + 1)));
+      } catch (NumberFormatException e) {
+        throw new ValueFormatException(e);
+      }
+    }
+    
+    private static int varintLength(long v) {
+      int len = 1;
+      while ((v & ~0x7FL) != 0) {
+        len++;
+        v >>>= 7;
+      }
+      return len;
     }
   }
 }
@@ -0,0 +1,449 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.advanced;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.TypedValueCombiner;
+import org.apache.accumulo.core.iterators.ValueFormatException;
+
+/**
+ * 
+ * Keep track of count, sum, sum of squares, min and max of all values, and
+ * optionally a mergeable quantile sketch, in a single binary value.
+ * Clients can derive the mean, variance, standard deviation and
+ * approximate percentiles from one cell.
+ * 
+ * Clients write one Statistics per observation using Statistics.of(); the
+ * combiner merges them in a single pass at scan and compaction time.
+ * 
+ */
+public class StatisticsCombiner extends TypedValueCombiner<StatisticsCombiner.Statistics> {
+  
+  private static final String KEEP_SKETCH_OPTION = "keepSketch";
+  
+  private boolean keepSketch = true;
+  
+  @Override
+  public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
+    super.init(source, options, env);
+    setEncoder(new StatisticsEncoder());
+    
+    if (options.containsKey(KEEP_SKETCH_OPTION))
+      keepSketch = Boolean.parseBoolean(options.get(KEEP_SKETCH_OPTION));
+  }
+  
+  @Override
+  public IteratorOptions describeOptions() {
+    IteratorOptions opts = super.describeOptions();
+    opts.setName("statsCombiner");
+    opts.setDescription("Combines count, sum, sum of squares, min, max and a quantile sketch");
+    opts.addNamedOption(KEEP_SKETCH_OPTION, "false to drop quantile sketches when combining (default true)");
+    return opts;
+  }
+  
+  @Override
+  public boolean validateOptions(Map<String,String> options) {
+    if (!super.validateOptions(options))
+      return false;
+    
+    String keep = options.get(KEEP_SKETCH_OPTION);
+    return keep == null || keep.equalsIgnoreCase("true") || keep.equalsIgnoreCase("false");
+  }
+  
+  /**
+   * Whether merged values keep their quantile sketches
+   * 
+   * @param setting
+   * @param keepSketch
+   */
+  public static void setKeepSketch(final IteratorSetting setting, final boolean keepSketch) {
+    setting.addOption(KEEP_SKETCH_OPTION, Boolean.toString(keepSketch));
+  }
+  
+  @Override
+  public Statistics typedReduce(Key key, Iterator<Statistics> iter) {
+  
+    Statistics result = new Statistics();
+    boolean first = true;
+    
+    while (iter.hasNext()) {
+      Statistics next = iter.next();
+      
+      // a sketch that is missing from any input would under count, so drop it
+      if (first && keepSketch && next.sketch != null)
+        result.sketch = new QuantileSketch(next.sketch.getRelativeAccuracy());
+      
+      result.merge(next);
+      first = false;
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Summary statistics of a set of observations
+   */
+  public static class Statistics {
+    
+    private long count = 0;
+    private double sum = 0.0;
+    private double sumOfSquares = 0.0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private QuantileSketch sketch;
+    
+    public Statistics() {}
+    
+    /**
+     * Statistics for a single observation
+     * 
+     * @param value
+     * @param relativeAccuracy accuracy of the quantile sketch, or 0 for no sketch
+     * @return statistics
+     */
+    public static Statistics of(final double value, final double relativeAccuracy) {
+      Statistics s = new Statistics();
+      if (relativeAccuracy > 0)
+        s.sketch = new QuantileSketch(relativeAccuracy);
+      
+      s.add(value);
+      return s;
+    }
+    
+    public void add(final double value) {
+      count++;
+      sum += value;
+      sumOfSquares += value * value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      
+      if (sketch != null)
+        sketch.add(value);
+    }
+    
+    public void merge(final Statistics other) {
+      count += other.count;
+      sum += other.sum;
+      sumOfSquares += other.sumOfSquares;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+      
+      if (sketch != null) {
+        if (other.sketch == null || other.sketch.getRelativeAccuracy() != sketch.getRelativeAccuracy())
+          sketch = null;
+        else
+          sketch.merge(other.sketch);
+      }
+    }
+    
+    public long getCount() {
+      return count;
+    }
+    
+    public double getSum() {
+      return sum;
+    }
+    
+    public double getSumOfSquares() {
+      return sumOfSquares;
+    }
+    
+    public double getMin() {
+      return min;
+    }
+    
+    public double getMax() {
+      return max;
+    }
+    
+    public double getMean() {
+      return count == 0 ? Double.NaN : sum / count;
+    }
+    
+    /**
+     * @return population variance
+     */
+    public double getVariance() {
+      if (count == 0)
+        return Double.NaN;
+      
+      double mean = sum / count;
+      // rounding can make this slightly negative for constant values
+      return Math.max(0.0, sumOfSquares / count - mean * mean);
+    }
+    
+    public double getStandardDeviation() {
+      return Math.sqrt(getVariance());
+    }
+    
+    /**
+     * @param q quantile between 0 and 1, e.g. 0.99
+     * @return approximate value at q, or NaN if no sketch was kept
+     */
+    public double getQuantile(final double q) {
+      return sketch == null ? Double.NaN : sketch.getQuantile(q);
+    }
+    
+    public QuantileSketch getSketch() {
+      return sketch;
+    }
+  }
+  
+  /**
+   * A mergeable quantile sketch with relative error guarantees.
+   * 
+   * Values are counted in logarithmically sized buckets so any quantile is
+   * returned within relativeAccuracy of the true value. Two sketches with
+   * the same accuracy merge by adding bucket counts. When a side grows past
+   * MAX_BUCKETS the buckets closest to zero are collapsed together, which
+   * only affects accuracy for the smallest magnitudes.
+   */
+  public static class QuantileSketch {
+    
+    public static final int MAX_BUCKETS = 2048;
+    
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    
+    private final TreeMap<Integer,Long> positive = new TreeMap<>();
+    private final TreeMap<Integer,Long> negative = new TreeMap<>();
+    private long zeroCount = 0;
+    private long count = 0;
+    
+    public QuantileSketch(final double relativeAccuracy) {
+      if (relativeAccuracy <= 0 || relativeAccuracy >= 1)
+        throw new IllegalArgumentException("relative accuracy must be between 0 and 1");
+      
+      this.relativeAccuracy = relativeAccuracy;
+      this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+      this.logGamma = Math.log(gamma);
+    }
+    
+    public double getRelativeAccuracy() {
+      return relativeAccuracy;
+    }
+    
+    public long getCount() {
+      return count;
+    }
+    
+    public void add(final double value) {
+      if (Double.isNaN(value))
+        return;
+      
+      if (value > 0)
+        increment(positive, index(value), 1);
+      else if (value < 0)
+        increment(negative, index(-value), 1);
+      else
+        zeroCount++;
+      
+      count++;
+    }
+    
+    public void merge(final QuantileSketch other) {
+      for (Map.Entry<Integer,Long> e : other.positive.entrySet())
+        increment(positive, e.getKey(), e.getValue());
+      
+      for (Map.Entry<Integer,Long> e : other.negative.entrySet())
+        increment(negative, e.getKey(), e.getValue());
+      
+      zeroCount += other.zeroCount;
+      count += other.count;
+    }
+    
+    public double getQuantile(final double q) {
+      if (count == 0)
+        return Double.NaN;
+      
+      long rank = (long) (Math.max(0.0, Math.min(1.0, q)) * (count - 1));
+      long seen = 0;
+      
+      // most negative values first
+      for (Map.Entry<Integer,Long> e : negative.descendingMap().entrySet()) {
+        seen += e.getValue();
+        if (seen > rank)
+          return -value(e.getKey());
+      }
+      
+      seen += zeroCount;
+      if (seen > rank)
+        return 0.0;
+      
+      for (Map.Entry<Integer,Long> e : positive.entrySet()) {
+        seen += e.getValue();
+        if (seen > rank)
+          return value(e.getKey());
+      }
+      
+      return value(positive.lastKey());
+    }
+    
+    private int index(final double magnitude) {
+      return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+    
+    // the point within a bucket with the smallest relative error
+    private double value(final int index) {
+      return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+    
+    private static void increment(final TreeMap<Integer,Long> buckets, final int index, final long n) {
+      Long current = buckets.get(index);
+      buckets.put(index, current == null ? n : current + n);
+      
+      while (buckets.size() > MAX_BUCKETS) {
+        Map.Entry<Integer,Long> lowest = buckets.pollFirstEntry();
+        Map.Entry<Integer,Long> next = buckets.firstEntry();
+        buckets.put(next.getKey(), next.getValue() + lowest.getValue());
+      }
+    }
+  }
+  
+  /**
+   * Binary encoding: a marker byte, a flags byte, the count as a varint,
+   * then sum, sum of squares, min and max as 8 byte doubles. If a sketch
+   * is present it follows as its accuracy, the zero count and the
+   * positive and negative buckets, each as a varint size followed by
+   * delta encoded indexes and counts.
+   */
+  public static class StatisticsEncoder implements Encoder<Statistics> {
+    
+    public static final byte BINARY_FORMAT = 0x02;
+    private static final byte HAS_SKETCH = 0x01;
+
+    @Override
+    public byte[] encode(Statistics v) {
+      QuantileSketch sketch = v.sketch;
+      
+      int size = 2 + 10 + 4 * 8;
+      if (sketch != null)
+        size += 8 + 10 + 2 * 10 + 20 * (sketch.positive.size() + sketch.negative.size());
+      
+      ByteBuffer buf = ByteBuffer.allocate(size);
+      buf.put(BINARY_FORMAT);
+      buf.put(sketch == null ? 0 : HAS_SKETCH);
+      writeVarint(buf, v.count);
+      buf.putDouble(v.sum);
+      buf.putDouble(v.sumOfSquares);
+      buf.putDouble(v.min);
+      buf.putDouble(v.max);
+      
+      if (sketch != null) {
+        buf.putDouble(sketch.relativeAccuracy);
+        writeVarint(buf, sketch.zeroCount);
+        writeBuckets(buf, sketch.positive);
+        writeBuckets(buf, sketch.negative);
+      }
+      
+      byte[] b = new byte[buf.position()];
+      System.arraycopy(buf.array(), 0, b, 0, b.length);
+      return b;
+    }
+
+    @Override
+    public Statistics decode(byte[] b) throws ValueFormatException {
+      if (b.length < 2 || b[0] != BINARY_FORMAT)
+        throw new ValueFormatException("not a statistics value");
+      
+      try {
+        ByteBuffer buf = ByteBuffer.wrap(b, 1, b.length - 1);
+        byte flags = buf.get();
+        
+        Statistics s = new Statistics();
+        s.count = readVarint(buf);
+        s.sum = buf.getDouble();
+        s.sumOfSquares = buf.getDouble();
+        s.min = buf.getDouble();
+        s.max = buf.getDouble();
+        
+        if ((flags & HAS_SKETCH) != 0) {
+          s.sketch = new QuantileSketch(buf.getDouble());
+          s.sketch.zeroCount = readVarint(buf);
+          s.sketch.count = s.sketch.zeroCount
+                  + readBuckets(buf, s.sketch.positive)
+                  + readBuckets(buf, s.sketch.negative);
+        }
+        
+        return s;
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        throw new ValueFormatException(e);
+      }
+    }
+    
+    private static void writeBuckets(ByteBuffer buf, TreeMap<Integer,Long> buckets) {
+      writeVarint(buf, buckets.size());
+      
+      // indexes are sorted so store the first as a zigzag varint and the rest as gaps
+      long previous = 0;
+      for (Map.Entry<Integer,Long> e : buckets.entrySet()) {
+        long delta = (long) e.getKey() - previous;
+        writeVarint(buf, (delta << 1) ^ (delta >> 63));
+        writeVarint(buf, e.getValue());
+        previous = e.getKey();
+      }
+    }
+    
+    private static long readBuckets(ByteBuffer buf, TreeMap<Integer,Long> buckets) {
+      long size = readVarint(buf);
+      long total = 0;
+      long previous = 0;
+      
+      for (long i = 0; i < size; i++) {
+        long zigzag = readVarint(buf);
+        long index = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+        long n = readVarint(buf);
+        
+        buckets.put((int) index, n);
+        total += n;
+        previous = index;
+      }
+      return total;
+    }
+    
+    private static void writeVarint(ByteBuffer buf, long v) {
+      while ((v & ~0x7FL) != 0) {
+        buf.put((byte) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      buf.put((byte) v);
+    }
+    
+    private static long readVarint(ByteBuffer buf) {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte next = buf.get();
+        v |= (long) (next & 0x7F) << shift;
+        if ((next & 0x80) == 0)
+          return v;
+      }
+      throw new IllegalArgumentException("varint too long");
+    }
+  }
+}
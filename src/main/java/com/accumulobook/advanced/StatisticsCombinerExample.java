@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.advanced;
+
+import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.advanced.StatisticsCombiner.Statistics;
+import com.accumulobook.advanced.StatisticsCombiner.StatisticsEncoder;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.admin.TableOperations;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.security.Authorizations;
+
+public class StatisticsCombinerExample {
+
+  private static void printStatistics(Scanner scanner, StatisticsEncoder enc) {
+    for(Map.Entry<Key, Value> e : scanner) {
+      Statistics stats = enc.decode(e.getValue().get());
+      
+      System.out.println(String.format(
+              "count %d  mean %.3f  stddev %.3f  min %.3f  max %.3f  median %.3f  p99 %.3f",
+              stats.getCount(),
+              stats.getMean(),
+              stats.getStandardDeviation(),
+              stats.getMin(),
+              stats.getMax(),
+              stats.getQuantile(0.5),
+              stats.getQuantile(0.99)));
+    }
+  }
+  
+  public static void main(String[] args) throws Exception {
+    
+    Connector conn = ExampleMiniCluster.getConnector();
+    
+    TableOperations ops = conn.tableOperations();
+    ops.create("testTable");
+    
+    // remove versioning iterator
+    ops.removeIterator("testTable", "vers", EnumSet.allOf(IteratorScope.class));
+    
+    // configure our iterator
+    IteratorSetting setting = new IteratorSetting(10, "stats", StatisticsCombiner.class);
+    StatisticsCombiner.setCombineAllColumns(setting, true);
+    StatisticsCombiner.setKeepSketch(setting, true);
+    
+    // attach to table for all scopes
+    ops.attachIterator("testTable", setting);
+    
+    BatchWriter writer = conn.createBatchWriter("testTable", new BatchWriterConfig());
+    
+    // begin writing numbers to our table, one observation per value
+    Random random = new Random();
+    StatisticsEncoder enc = new StatisticsEncoder();
+    
+    for(int i = 0; i < 5; i++) {
+      Mutation m = new Mutation("heights");
+      m.put("", "stats", new Value(enc.encode(Statistics.of(random.nextGaussian() * 0.3 + 5.5, 0.01))));
+      writer.addMutation(m);
+    }
+    writer.flush();
+    
+    Scanner scanner = conn.createScanner("testTable", Authorizations.EMPTY);
+    printStatistics(scanner, enc);
+    
+    for(int i = 0; i < 1000; i++) {
+      Mutation m = new Mutation("heights");
+      m.put("", "stats", new Value(enc.encode(Statistics.of(random.nextGaussian() * 0.3 + 5.5, 0.01))));
+      writer.addMutation(m);
+    }
+    writer.flush();
+    
+    printStatistics(scanner, enc);
+  }	
+}
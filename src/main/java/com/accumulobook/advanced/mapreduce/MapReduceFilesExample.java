@@ -25,10 +25,12 @@ import java.util.List;
 import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.ClientConfiguration;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
 import org.apache.accumulo.core.client.mapreduce.AccumuloInputFormat;
 import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.util.Pair;
 import org.apache.accumulo.core.util.shell.Shell;
@@ -110,9 +112,12 @@ public class MapReduceFilesExample implements Tool {
     job.setInputFormatClass(AccumuloInputFormat.class);
     AccumuloInputFormat.setInputTableName(job, WikipediaConstants.ARTICLES_TABLE_CLONE);
     List<Pair<Text,Text>> columns = new ArrayList<>();
-    columns.add(new Pair(WikipediaConstants.CONTENTS_FAMILY_TEXT, new Text("")));
+    columns.add(new Pair(WikipediaConstants.CONTENTS_FAMILY_TEXT, null));
   
     AccumuloInputFormat.fetchColumns(job, columns);
+    
+    // large contents are stored in pieces, so map over whole rows
+    AccumuloInputFormat.addIterator(job, new IteratorSetting(50, "wholeRow", WholeRowIterator.class));
     AccumuloInputFormat.setZooKeeperInstance(job, zkiConfig);
     AccumuloInputFormat.setConnectorInfo(job, args[2], new PasswordToken(args[3]));
 	
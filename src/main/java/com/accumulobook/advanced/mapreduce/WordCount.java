@@ -17,7 +17,9 @@
 package com.accumulobook.advanced.mapreduce;
 
 import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.TextTokenizer;
 import com.accumulobook.WikipediaConstants;
+import com.accumulobook.basic.Article;
 import com.accumulobook.basic.WikipediaClient;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -27,12 +29,14 @@ import java.util.Map;
 import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.ClientConfiguration;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.mapreduce.AccumuloInputFormat;
 import org.apache.accumulo.core.client.mapreduce.AccumuloOutputFormat;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.util.Pair;
 import org.apache.accumulo.core.util.shell.Shell;
@@ -68,9 +72,12 @@ public class WordCount implements Tool {
     
     AccumuloInputFormat.setInputTableName(job, WikipediaConstants.ARTICLES_TABLE);
     List<Pair<Text,Text>> columns = new ArrayList<>();
-    columns.add(new Pair(WikipediaConstants.CONTENTS_FAMILY_TEXT, new Text("")));
+    columns.add(new Pair(WikipediaConstants.CONTENTS_FAMILY_TEXT, null));
   
     AccumuloInputFormat.fetchColumns(job, columns);
+    
+    // large contents are stored in pieces, so map over whole rows
+    AccumuloInputFormat.addIterator(job, new IteratorSetting(50, "wholeRow", WholeRowIterator.class));
     AccumuloInputFormat.setZooKeeperInstance(job, zkiConfig);
     AccumuloInputFormat.setConnectorInfo(job, args[2], new PasswordToken(args[3]));
     
@@ -107,14 +114,21 @@ public class WordCount implements Tool {
 
   public static class WordCountMapper extends Mapper<Key,Value,Text,IntWritable> {
   
+    private final TextTokenizer tokenizer = TextTokenizer.forWordCount();
+    
     @Override
     public void map(Key k, Value v, Context context) throws IOException, InterruptedException {
       
-      String text = new String(v.get());
+      // contents may have been compressed or split into pieces by the client
+      String text = Article.fromEntries(WholeRowIterator.decodeRow(k, v).entrySet()).getContents();
+      if (text == null)
+        return;
       
       // count words in article
       HashMap<String, Integer> wordCounts = new HashMap<>();
-      for (String word : text.replaceAll("[^a-zA-Z ]", " ").toLowerCase().split("\\s+")) {
+      tokenizer.reset(text);
+      while (tokenizer.next()) {
+        String word = tokenizer.token();
         if (!wordCounts.containsKey(word)) {
           wordCounts.put(word, 0);
         }
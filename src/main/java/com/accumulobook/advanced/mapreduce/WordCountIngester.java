@@ -17,6 +17,7 @@
 package com.accumulobook.advanced.mapreduce;
 
 import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.TextTokenizer;
 import com.accumulobook.WikipediaConstants;
 import com.accumulobook.basic.WikipediaPagesFetcher;
 import info.bliki.wiki.dump.IArticleFilter;
@@ -59,6 +60,8 @@ public class WordCountIngester {
   
   private class WArticleFilter implements IArticleFilter {
 
+    private final TextTokenizer tokenizer = TextTokenizer.forWordCount();
+    
     @Override
     public void process(WikiArticle article, Siteinfo info)
             throws SAXException {
@@ -72,7 +75,9 @@ public class WordCountIngester {
 
       // count words in article
       HashMap<String, Integer> wordCounts = new HashMap<>();
-      for(String word : plaintext.replaceAll("^[a-zA-Z]"," ").toLowerCase().split("\\s+")) {
+      tokenizer.reset(plaintext);
+      while(tokenizer.next()) {
+        String word = tokenizer.token();
         if(!wordCounts.containsKey(word)) {
           wordCounts.put(word, 0);
         }
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import com.accumulobook.WikipediaConstants;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+
+/**
+ * The fields read from one article row, named as printArticle() shows
+ * them: the contents under "contents", metadata under its qualifier.
+ *
+ * Contents are kept as stored, possibly compressed by a ContentsCodec, and
+ * decoded each time they are asked for, so a cached Article never holds
+ * more than its stored size. Callers needing the text twice should keep it.
+ */
+public class Article {
+
+  // rough per entry cost of the map, entry and string headers
+  private static final int ENTRY_OVERHEAD = 200;
+
+  private final Map<String, String> metadata;
+  private final byte[] contentsValue;
+  private final int chunks;
+  private final int bytes;
+
+  /**
+   *
+   * @param metadata fields other than the contents
+   * @param contentsValue contents as stored, or null if they were not read
+   */
+  Article(final Map<String, String> metadata, final byte[] contentsValue) {
+    this(metadata, contentsValue, contentsValue == null ? 0 : ChunkedContents.chunkCount(contentsValue));
+  }
+
+  /**
+   *
+   * @param metadata fields other than the contents
+   * @param contentsValue contents as stored, or null if they were not read
+   * @param chunks count of pieces stored in the row, 0 if none
+   */
+  Article(final Map<String, String> metadata, final byte[] contentsValue, final int chunks) {
+    this.metadata = Collections.unmodifiableMap(new LinkedHashMap<>(metadata));
+    this.contentsValue = contentsValue;
+    this.chunks = chunks;
+
+    int size = ENTRY_OVERHEAD + (contentsValue == null ? 0 : contentsValue.length);
+    for (Map.Entry<String, String> e : metadata.entrySet()) {
+      size += 2 * (e.getKey().length() + e.getValue().length());
+    }
+    this.bytes = size;
+  }
+
+  /**
+   * Collect the entries of one row
+   *
+   * @param entries
+   * @return article, with no fields if there were no entries
+   */
+  public static Article fromEntries(final Iterable<Map.Entry<Key, Value>> entries) {
+
+    Map<String, String> metadata = new LinkedHashMap<>();
+    ChunkedContents.Assembler contents = new ChunkedContents.Assembler();
+    for (Map.Entry<Key, Value> entry : entries) {
+      Key key = entry.getKey();
+      if (key.getColumnFamily().toString().equals(WikipediaConstants.CONTENTS_FAMILY)) {
+        contents.add(key.getColumnQualifier().toString(), entry.getValue().get());
+      } else {
+        metadata.put(key.getColumnQualifier().toString(),
+                new String(entry.getValue().get(), StandardCharsets.UTF_8));
+      }
+    }
+
+    return new Article(metadata, contents.value(), contents.chunks());
+  }
+
+  /**
+   * @return all fields, decoding the contents if they were read
+   */
+  public Map<String, String> getFields() {
+    Map<String, String> fields = new LinkedHashMap<>();
+
+    // contents sort before metadata in the row
+    if (contentsValue != null)
+      fields.put(WikipediaConstants.CONTENTS_FAMILY, getContents());
+    fields.putAll(metadata);
+
+    return fields;
+  }
+
+  /**
+   * @param field "contents" or a metadata qualifier
+   * @return value, or null if it was not read
+   */
+  public String get(final String field) {
+    if (field.equals(WikipediaConstants.CONTENTS_FAMILY))
+      return getContents();
+
+    return metadata.get(field);
+  }
+
+  public String getRevision() {
+    return metadata.get(WikipediaConstants.REVISION_QUAL);
+  }
+
+  /**
+   * @return decoded contents, or null if they were not read
+   */
+  public String getContents() {
+
+    if (contentsValue == null)
+      return null;
+
+    try {
+      return ContentsCodec.decode(contentsValue);
+    } catch (IOException ex) {
+      throw new IllegalStateException("can't decode contents of article", ex);
+    }
+  }
+
+  /**
+   * @return count of pieces stored in the row, 0 if there was none or it
+   * was not read
+   */
+  public int getChunks() {
+    return chunks;
+  }
+
+  public boolean isEmpty() {
+    return metadata.isEmpty() && contentsValue == null;
+  }
+
+  /**
+   * @return approximate memory used by the fields, counting the contents
+   * at their stored size
+   */
+  int getBytes() {
+    return bytes;
+  }
+
+  Article withContents(final String revision, final byte[] contentsValue) {
+    Map<String, String> updated = new LinkedHashMap<>(metadata);
+    updated.put(WikipediaConstants.REVISION_QUAL, revision);
+    return new Article(updated, contentsValue);
+  }
+}
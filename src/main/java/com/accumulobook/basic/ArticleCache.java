@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded in-memory cache of whole article rows, sized by the approximate
+ * number of bytes the cached strings occupy and evicting the least
+ * recently used articles first.
+ *
+ * Each entry remembers the metadata:revision it was read at, so an edit
+ * made through the client can refresh the entry when it was based on the
+ * cached revision, and drop it otherwise.
+ *
+ * Rows read from the table are added with a token taken before the read
+ * started. Invalidating or editing a title changes its token, so a read
+ * that began before the change can never put the old row back.
+ */
+public class ArticleCache {
+
+  // changes counted per stripe of titles, keeping the memory used fixed
+  private static final int GENERATION_STRIPES = 1024;
+
+  private final Cache<String, Article> cache;
+  private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+  /**
+   *
+   * @param maxBytes approximate memory the cached articles may use
+   */
+  public ArticleCache(final long maxBytes) {
+    cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher(new Weigher<String, Article>() {
+              @Override
+              public int weigh(String title, Article article) {
+                return 2 * title.length() + article.getBytes();
+              }
+            })
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * @param title
+   * @return the cached article, or null on a miss
+   */
+  public Article get(final String title) {
+    return cache.getIfPresent(title);
+  }
+
+  /**
+   * Take before reading title from the table
+   *
+   * @param title
+   * @return token to hand to loaded() with the row read
+   */
+  public long loading(final String title) {
+    return generations.get(stripe(title));
+  }
+
+  /**
+   * Cache a row read from the table, unless title was invalidated or
+   * edited since its token was taken
+   *
+   * @param title
+   * @param token from loading(), taken before the read
+   * @param article
+   */
+  public void loaded(final String title, final long token, final Article article) {
+
+    int stripe = stripe(title);
+    if (generations.get(stripe) != token)
+      return;
+
+    cache.put(title, article);
+
+    // a change that came in after the check has invalidated, or will
+    // invalidate, the entry just put; undo the put if it came before
+    if (generations.get(stripe) != token)
+      cache.asMap().remove(title, article);
+  }
+
+  /**
+   * Record the outcome of an edit of title's contents. An accepted edit
+   * of the cached revision is applied to the entry; anything else means
+   * the entry may be out of date.
+   *
+   * @param title
+   * @param lastRevision revision the edit was based on
+   * @param newRevision
+   * @param contentsValue contents as the edit stored them
+   * @param accepted
+   */
+  public void edited(
+          final String title,
+          final String lastRevision,
+          final String newRevision,
+          final byte[] contentsValue,
+          final boolean accepted) {
+
+    changed(title);
+
+    // looking through asMap() keeps this out of the hit and miss counts
+    Article cached = cache.asMap().get(title);
+    if (cached == null)
+      return;
+
+    if (!accepted
+            || !lastRevision.equals(cached.getRevision())
+            || !cache.asMap().replace(title, cached, cached.withContents(newRevision, contentsValue)))
+      cache.invalidate(title);
+  }
+
+  public void invalidate(final String title) {
+    changed(title);
+    cache.invalidate(title);
+  }
+
+  public void invalidateAll() {
+    for (int i = 0; i < GENERATION_STRIPES; i++) {
+      generations.incrementAndGet(i);
+    }
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return hit, miss and eviction counts since the cache was created
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * @return number of cached articles
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  private void changed(final String title) {
+    generations.incrementAndGet(stripe(title));
+  }
+
+  private static int stripe(final String title) {
+    return (title.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+}
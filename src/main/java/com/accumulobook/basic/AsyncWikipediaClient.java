@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import com.accumulobook.basic.WikipediaClient.WikipediaEditException;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.accumulo.core.client.ConditionalWriter;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.ConditionalMutation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking companion to WikipediaClient. Every method returns a future
+ * straight away; callers can block on it or attach callbacks with
+ * Futures.addCallback().
+ *
+ * Reads run on a bounded pool of scanner threads shared by all callers, and
+ * fail fast with a RejectedExecutionException once its queue is full rather
+ * than piling up work. Edits are queued for a single dispatcher thread that
+ * hands everything waiting to the ConditionalWriter in one write() call, so
+ * concurrent edits share round trips to the tablet servers.
+ *
+ * <pre>
+ * AsyncWikipediaClient async = new AsyncWikipediaClient(client, 8, 1000);
+ * Futures.addCallback(async.updateContent(title, revision, contents), callback);
+ * </pre>
+ */
+public class AsyncWikipediaClient {
+
+  private static final Logger logger = LoggerFactory.getLogger(AsyncWikipediaClient.class);
+
+  // most edits handed to the ConditionalWriter in one write() call
+  private static final int MAX_EDIT_BATCH = 1000;
+
+  // tells the dispatcher no more edits will arrive
+  private static final PendingEdit END_OF_EDITS = new PendingEdit(null, null, null);
+
+  private static final Function<List<Boolean>, Boolean> ALL_TRUE = new Function<List<Boolean>, Boolean>() {
+    @Override
+    public Boolean apply(List<Boolean> results) {
+      return !results.contains(false);
+    }
+  };
+
+  private final WikipediaClient client;
+  private final ListeningExecutorService readExecutor;
+  private final BlockingQueue<PendingEdit> edits = new LinkedBlockingQueue<>();
+  private final Thread dispatcher;
+  // guards enqueueing edits against close, so none arrive after the final drain
+  private final Object editLock = new Object();
+  private volatile boolean closed = false;
+
+  private static class PendingEdit {
+
+    private final String title;
+    private final String lastRevision;
+    private final String contents;
+    private final SettableFuture<Boolean> result = SettableFuture.create();
+
+    PendingEdit(String title, String lastRevision, String contents) {
+      this.title = title;
+      this.lastRevision = lastRevision;
+      this.contents = contents;
+    }
+  }
+
+  /**
+   *
+   * @param client blocking client whose connector and ConditionalWriter are used
+   * @param numReadThreads number of scanner threads
+   * @param maxQueuedReads reads that may wait for a thread before new ones are rejected
+   */
+  public AsyncWikipediaClient(
+          final WikipediaClient client,
+          final int numReadThreads,
+          final int maxQueuedReads) {
+
+    if (numReadThreads < 1)
+      throw new IllegalArgumentException("need at least one read thread");
+
+    if (maxQueuedReads < 1)
+      throw new IllegalArgumentException("read queue size must be positive");
+
+    this.client = client;
+    this.readExecutor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
+            numReadThreads, numReadThreads,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(maxQueuedReads),
+            new ThreadFactoryBuilder().setNameFormat("wiki-read-%d").setDaemon(true).build()));
+
+    dispatcher = new Thread(new EditDispatcher(), "wiki-edit-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * Retrieve an article's contents and revision number
+   *
+   * @param articleTitle
+   * @return future map as returned by WikipediaClient.getContentsAndRevision()
+   */
+  public ListenableFuture<Map<String, String>> getContentsAndRevision(final String articleTitle) {
+    return read(new Callable<Map<String, String>>() {
+      @Override
+      public Map<String, String> call() throws Exception {
+        return client.getContentsAndRevision(articleTitle);
+      }
+    });
+  }
+
+  /**
+   * Print an article once a scanner thread is free
+   *
+   * @param articleTitle
+   * @return future completed when the article has been printed
+   */
+  public ListenableFuture<Void> printArticle(final String articleTitle) {
+    return read(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        client.printArticle(articleTitle);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Queue articles for deletion with the client's delete service
+   *
+   * @param titles
+   * @return future that is true once all articles are durably deleted
+   */
+  public ListenableFuture<Boolean> deleteArticles(final String... titles) {
+
+    if (closed || client.isClosed())
+      return Futures.immediateFailedFuture(new IOException("client closed"));
+
+    List<ListenableFuture<Boolean>> deleted = new ArrayList<>(titles.length);
+    try {
+      for (String title : titles) {
+        deleted.add(client.deleteArticleAsync(title));
+      }
+    } catch (IOException ex) {
+      return Futures.immediateFailedFuture(ex);
+    }
+
+    return Futures.transform(Futures.allAsList(deleted), ALL_TRUE);
+  }
+
+  /**
+   * Queue an edit of a page that only applies if no one else has modified
+   * it since we read it
+   *
+   * @param title
+   * @param lastRevision
+   * @param contents
+   * @return future that is true if the edit was applied, false if it was
+   * rejected, or fails with a WikipediaEditException
+   */
+  public ListenableFuture<Boolean> updateContent(
+          final String title,
+          final String lastRevision,
+          final String contents) {
+
+    if (closed || client.isClosed())
+      return Futures.immediateFailedFuture(new IOException("client closed"));
+
+    PendingEdit edit = new PendingEdit(title, lastRevision, contents);
+    synchronized (editLock) {
+      if (closed)
+        return Futures.immediateFailedFuture(new IOException("client closed"));
+      edits.add(edit);
+    }
+    return edit.result;
+  }
+
+  /**
+   * Stop accepting work and wait for queued edits and reads to finish.
+   * Does not close the underlying WikipediaClient.
+   *
+   * @throws InterruptedException
+   */
+  public void close() throws InterruptedException {
+
+    synchronized (editLock) {
+      if (!closed) {
+        closed = true;
+        edits.add(END_OF_EDITS);
+      }
+    }
+    dispatcher.join();
+
+    readExecutor.shutdown();
+    readExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  private <T> ListenableFuture<T> read(final Callable<T> task) {
+
+    if (closed || client.isClosed())
+      return Futures.immediateFailedFuture(new IOException("client closed"));
+
+    try {
+      return readExecutor.submit(task);
+    } catch (RejectedExecutionException ex) {
+      return Futures.immediateFailedFuture(ex);
+    }
+  }
+
+  private class EditDispatcher implements Runnable {
+
+    @Override
+    public void run() {
+
+      List<PendingEdit> batch = new ArrayList<>();
+      List<PendingEdit> deferred = new ArrayList<>();
+      boolean done = false;
+
+      try {
+        while (!done || !deferred.isEmpty()) {
+          batch.clear();
+          batch.addAll(deferred);
+          deferred.clear();
+
+          // wait for one edit, then take whatever else queued up meanwhile
+          if (!done) {
+            if (batch.isEmpty())
+              batch.add(edits.take());
+            edits.drainTo(batch, MAX_EDIT_BATCH - batch.size());
+
+            if (batch.remove(END_OF_EDITS))
+              done = true;
+          }
+
+          write(batch, deferred);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        // anything still queued will never be written
+        List<PendingEdit> remaining = new ArrayList<>(deferred);
+        synchronized (editLock) {
+          closed = true;
+          edits.drainTo(remaining);
+        }
+        for (PendingEdit edit : remaining) {
+          edit.result.setException(new IOException("client closed"));
+        }
+      }
+    }
+
+    /**
+     * Write one batch. Results are matched to edits by row, so a second edit
+     * of a row already in the batch is deferred to the next one, which also
+     * keeps edits of the same page in the order they were made. Mutations
+     * are built here, after one lookup of the whole batch's stored piece
+     * counts.
+     */
+    private void write(final List<PendingEdit> batch, final List<PendingEdit> deferred) {
+
+      Map<String, PendingEdit> byRow = new HashMap<>();
+      for (PendingEdit edit : batch) {
+        if (byRow.containsKey(edit.title)) {
+          deferred.add(edit);
+          continue;
+        }
+
+        byRow.put(edit.title, edit);
+      }
+
+      if (byRow.isEmpty())
+        return;
+
+      try {
+        Map<String, Integer> chunks = client.storedChunks(byRow.keySet());
+        List<ConditionalMutation> mutations = new ArrayList<>(byRow.size());
+        for (PendingEdit edit : byRow.values()) {
+          mutations.add(client.contentMutation(edit.title, edit.lastRevision, edit.contents, chunks.get(edit.title)));
+        }
+
+        // results arrive as each tablet server answers, not in submission order
+        Iterator<ConditionalWriter.Result> results = client.getConditionalWriter().write(mutations.iterator());
+        while (results.hasNext()) {
+          ConditionalWriter.Result r = results.next();
+          PendingEdit edit = byRow.remove(new String(r.getMutation().getRow(), StandardCharsets.UTF_8));
+          if (edit == null)
+            continue;
+
+          try {
+            boolean accepted = WikipediaClient.editAccepted(r);
+            client.contentEdited(edit.title, edit.lastRevision, edit.contents, accepted);
+            edit.result.set(accepted);
+          } catch (WikipediaEditException ex) {
+            client.contentEdited(edit.title, edit.lastRevision, edit.contents, false);
+            edit.result.setException(ex);
+          }
+        }
+      } catch (TableNotFoundException | RuntimeException ex) {
+        logger.error("failed to write edits", ex);
+        Exception failure = ex instanceof TableNotFoundException ? new WikipediaEditException(ex) : ex;
+        for (PendingEdit edit : byRow.values()) {
+          client.contentEdited(edit.title, edit.lastRevision, edit.contents, false);
+          edit.result.setException(failure);
+        }
+        return;
+      }
+
+      for (PendingEdit edit : byRow.values()) {
+        client.contentEdited(edit.title, edit.lastRevision, edit.contents, false);
+        edit.result.setException(new IOException("no result from server for " + edit.title));
+      }
+    }
+  }
+}
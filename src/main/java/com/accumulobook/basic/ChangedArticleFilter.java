@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import com.accumulobook.WikipediaConstants;
+import com.google.common.base.Function;
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.xml.sax.SAXException;
+
+/**
+ * Passes on only the articles of a dump whose revision differs from the
+ * one already in the articles table, so reloading a dump that mostly
+ * matches the last one rewrites only what changed.
+ *
+ * Parsed articles are collected into batches and the stored revisions of
+ * a whole batch are looked up with one BatchScanner before any of them is
+ * rendered. Call finish() after parsing to handle the last partial batch.
+ */
+public class ChangedArticleFilter implements IArticleFilter {
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private static final Text COUNT_QUAL_TEXT = new Text(ChunkedContents.COUNT_QUAL);
+
+  /**
+   * Receives new and changed articles
+   */
+  public interface Handler {
+
+    /**
+     * @param page article from the dump
+     * @param existing what is stored for it now, or null if it is new
+     * @throws SAXException
+     */
+    void process(WikiArticle page, Article existing) throws SAXException;
+  }
+
+  private final Connector conn;
+  private final Authorizations auths;
+  private final int batchSize;
+  private final Function<WikiArticle, String> rowOf;
+  private final boolean fetchContents;
+  private final Handler handler;
+
+  private final List<WikiArticle> batch = new ArrayList<>();
+  private long changed = 0;
+  private long skipped = 0;
+
+  /**
+   *
+   * @param conn
+   * @param auths
+   * @param batchSize articles to look up at once
+   * @param rowOf row an article is stored under
+   * @param fetchContents also read stored contents, e.g. to find terms that
+   * disappeared; otherwise only metadata and the contents' piece count are
+   * read
+   * @param handler
+   */
+  public ChangedArticleFilter(
+          final Connector conn,
+          final Authorizations auths,
+          final int batchSize,
+          final Function<WikiArticle, String> rowOf,
+          final boolean fetchContents,
+          final Handler handler) {
+
+    if (batchSize < 1)
+      throw new IllegalArgumentException("batch size must be positive");
+
+    this.conn = conn;
+    this.auths = auths;
+    this.batchSize = batchSize;
+    this.rowOf = rowOf;
+    this.fetchContents = fetchContents;
+    this.handler = handler;
+  }
+
+  @Override
+  public void process(WikiArticle article, Siteinfo info) throws SAXException {
+
+    batch.add(article);
+    if (batch.size() >= batchSize)
+      processBatch();
+  }
+
+  /**
+   * Handle articles still waiting for a lookup
+   *
+   * @throws SAXException
+   */
+  public void finish() throws SAXException {
+    processBatch();
+  }
+
+  /**
+   * @return number of new or changed articles passed on
+   */
+  public long getChanged() {
+    return changed;
+  }
+
+  /**
+   * @return number of articles skipped because their revision was already stored
+   */
+  public long getSkipped() {
+    return skipped;
+  }
+
+  private void processBatch() throws SAXException {
+
+    if (batch.isEmpty())
+      return;
+
+    Map<String, Article> existing;
+    try {
+      existing = lookup();
+    } catch (TableNotFoundException | IOException ex) {
+      throw new SAXException(ex);
+    }
+
+    for (WikiArticle page : batch) {
+      Article stored = existing.get(rowOf.apply(page));
+
+      if (stored != null && page.getRevisionId().equals(stored.getRevision())) {
+        skipped++;
+        continue;
+      }
+
+      handler.process(page, stored);
+      changed++;
+    }
+
+    batch.clear();
+  }
+
+  private Map<String, Article> lookup() throws TableNotFoundException, IOException {
+
+    Set<String> rows = new HashSet<>();
+    for (WikiArticle page : batch) {
+      rows.add(rowOf.apply(page));
+    }
+
+    List<Range> ranges = new ArrayList<>(rows.size());
+    for (String row : rows) {
+      ranges.add(Range.exact(row));
+    }
+
+    Map<String, Article> existing = new HashMap<>();
+
+    BatchScanner scanner = conn.createBatchScanner(WikipediaConstants.ARTICLES_TABLE, auths, WikipediaClient.NUM_QUERY_THREADS);
+    try {
+      scanner.setRanges(ranges);
+      scanner.fetchColumnFamily(WikipediaConstants.METADATA_FAMILY_TEXT);
+      if (fetchContents)
+        scanner.fetchColumnFamily(WikipediaConstants.CONTENTS_FAMILY_TEXT);
+      else
+        // the stored count, so rewrites can remove pieces no longer needed
+        scanner.fetchColumn(WikipediaConstants.CONTENTS_FAMILY_TEXT, COUNT_QUAL_TEXT);
+      scanner.addScanIterator(new IteratorSetting(50, "wholeRow", WholeRowIterator.class));
+
+      for (Map.Entry<Key, Value> row : scanner) {
+        existing.put(row.getKey().getRow().toString(),
+                Article.fromEntries(WholeRowIterator.decodeRow(row.getKey(), row.getValue()).entrySet()));
+      }
+    } finally {
+      scanner.close();
+    }
+
+    return existing;
+  }
+}
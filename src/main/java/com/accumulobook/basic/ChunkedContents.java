@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import com.accumulobook.WikipediaConstants;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+
+/**
+ * Layout of an article's contents within its row.
+ *
+ * Contents up to CHUNK_SIZE bytes, after any ContentsCodec, are stored
+ * whole in contents:"". Larger contents are split into CHUNK_SIZE pieces
+ * stored in contents:chunk_00000, contents:chunk_00001, ... with the
+ * number of pieces in contents:#chunks, which sorts before them, so a
+ * scan of the contents family meets the count first and can then stream
+ * the pieces in order.
+ *
+ * Ingest writes each piece as its own mutation and the count, with the
+ * rest of the row, last, so no single mutation carries a whole large
+ * article. A conditional edit puts everything in one mutation so its
+ * revision check covers the whole set. Either way, pieces past the new
+ * count are deleted when the number of pieces stored is known, and rows
+ * that never had pieces get no deletes for them. A whole value sorts
+ * first and wins over any count, so a count left by an earlier version is
+ * harmless.
+ */
+public class ChunkedContents {
+
+  public static final int CHUNK_SIZE = 256 * 1024;
+
+  public static final String WHOLE_QUAL = "";
+  public static final String COUNT_QUAL = "#chunks";
+  private static final String CHUNK_PREFIX = "chunk_";
+
+  private ChunkedContents() {
+  }
+
+  /**
+   * @param index
+   * @return qualifier of a piece, zero padded so pieces sort in order
+   */
+  public static String chunkQualifier(final int index) {
+    return String.format("%s%05d", CHUNK_PREFIX, index);
+  }
+
+  /**
+   * @param value contents as encoded by ContentsCodec
+   * @return number of pieces value is stored in, 0 if it is stored whole
+   */
+  public static int chunkCount(final byte[] value) {
+    return value.length <= CHUNK_SIZE ? 0 : (value.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+  }
+
+  /**
+   * Add the contents columns to a mutation, whole or in pieces, e.g. for a
+   * conditional edit
+   *
+   * @param m
+   * @param value contents as encoded by ContentsCodec
+   * @param storedChunks value of the row's count now, 0 if none or not known
+   */
+  public static void put(final Mutation m, final byte[] value, final int storedChunks) {
+
+    int count = chunkCount(value);
+    for (int i = 0; i < count; i++) {
+      putChunk(m, value, i);
+    }
+    putLayout(m, value, count, storedChunks);
+  }
+
+  /**
+   * Split the contents columns over several mutations for a BatchWriter:
+   * one per piece, then m with the count or the whole value
+   *
+   * @param m mutation for the rest of the row, written last
+   * @param value contents as encoded by ContentsCodec
+   * @param storedChunks value of the row's count now, 0 if none or not known
+   * @return mutations in the order they should be written
+   */
+  public static List<Mutation> mutations(final Mutation m, final byte[] value, final int storedChunks) {
+
+    int count = chunkCount(value);
+    List<Mutation> mutations = new ArrayList<>(count + 1);
+    for (int i = 0; i < count; i++) {
+      Mutation piece = new Mutation(m.getRow());
+      putChunk(piece, value, i);
+      mutations.add(piece);
+    }
+
+    putLayout(m, value, count, storedChunks);
+    mutations.add(m);
+
+    return mutations;
+  }
+
+  private static void putChunk(final Mutation m, final byte[] value, final int index) {
+    m.put(WikipediaConstants.CONTENTS_FAMILY, chunkQualifier(index),
+            new Value(Arrays.copyOfRange(value, index * CHUNK_SIZE, Math.min(value.length, (index + 1) * CHUNK_SIZE))));
+  }
+
+  private static void putLayout(final Mutation m, final byte[] value, final int count, final int storedChunks) {
+
+    if (count == 0) {
+      m.put(WikipediaConstants.CONTENTS_FAMILY, WHOLE_QUAL, new Value(value));
+      if (storedChunks > 0)
+        m.putDelete(WikipediaConstants.CONTENTS_FAMILY, COUNT_QUAL);
+    } else {
+      // a whole value would sort first and hide the pieces
+      m.putDelete(WikipediaConstants.CONTENTS_FAMILY, WHOLE_QUAL);
+      m.put(WikipediaConstants.CONTENTS_FAMILY, COUNT_QUAL, Integer.toString(count));
+    }
+
+    // pieces of an earlier, longer version
+    for (int i = count; i < storedChunks; i++) {
+      m.putDelete(WikipediaConstants.CONTENTS_FAMILY, chunkQualifier(i));
+    }
+  }
+
+  /**
+   * Collects the contents entries of one row back into the stored value
+   */
+  public static class Assembler {
+
+    private byte[] whole;
+    private int count = 0;
+    private int next = 0;
+    private ByteArrayOutputStream pieces;
+
+    /**
+     * @param qualifier qualifier of an entry in the contents family
+     * @param value
+     */
+    public void add(final String qualifier, final byte[] value) {
+
+      if (qualifier.equals(WHOLE_QUAL)) {
+        whole = value;
+      } else if (qualifier.equals(COUNT_QUAL)) {
+        count = Integer.parseInt(new String(value, StandardCharsets.UTF_8));
+      } else if (whole == null && next < count && qualifier.equals(chunkQualifier(next))) {
+        if (pieces == null)
+          pieces = new ByteArrayOutputStream(count * CHUNK_SIZE);
+        pieces.write(value, 0, value.length);
+        next++;
+      }
+    }
+
+    /**
+     * @return the stored value, or null if the row had no contents or only
+     * the count was read
+     * @throws IllegalStateException if pieces are missing
+     */
+    public byte[] value() {
+
+      if (whole != null)
+        return whole;
+
+      if (count == 0 || next == 0)
+        return null;
+
+      if (next < count)
+        throw new IllegalStateException("found " + next + " of " + count + " pieces of contents");
+
+      return pieces.toByteArray();
+    }
+
+    /**
+     * @return the count stored in the row, 0 if there was none
+     */
+    public int chunks() {
+      return count;
+    }
+  }
+
+  /**
+   * Streams the stored value from a scan of one row's contents family,
+   * reading pieces from the scan only as they are needed
+   */
+  public static class ChunkInputStream extends InputStream {
+
+    private final Iterator<Map.Entry<Key, Value>> entries;
+    private byte[] current = new byte[0];
+    private int pos = 0;
+    private int count = -1;
+    private int next = 0;
+
+    /**
+     *
+     * @param entries entries of one row's contents family, in sorted order
+     */
+    public ChunkInputStream(final Iterator<Map.Entry<Key, Value>> entries) {
+      this.entries = entries;
+    }
+
+    /**
+     * @return false when there are no more bytes
+     */
+    private boolean fill() throws IOException {
+
+      while (pos == current.length) {
+        if (count >= 0 && next == count)
+          return false;
+
+        if (!entries.hasNext()) {
+          if (count > 0)
+            throw new IOException("found " + next + " of " + count + " pieces of contents");
+          return false;
+        }
+
+        Map.Entry<Key, Value> entry = entries.next();
+        String qualifier = entry.getKey().getColumnQualifier().toString();
+
+        if (count < 0 && qualifier.equals(WHOLE_QUAL)) {
+          // stored whole, nothing follows
+          current = entry.getValue().get();
+          count = 0;
+        } else if (count < 0 && qualifier.equals(COUNT_QUAL)) {
+          count = Integer.parseInt(new String(entry.getValue().get(), StandardCharsets.UTF_8));
+          continue;
+        } else if (count > 0 && qualifier.equals(chunkQualifier(next))) {
+          current = entry.getValue().get();
+          next++;
+        } else {
+          continue;
+        }
+        pos = 0;
+      }
+
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill())
+        return -1;
+
+      return current[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0)
+        return 0;
+
+      if (!fill())
+        return -1;
+
+      int n = Math.min(len, current.length - pos);
+      System.arraycopy(current, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses article contents before they are written and decompresses
+ * them when read.
+ *
+ * An encoded value starts with a header byte naming the codec that wrote
+ * it. Header bytes come from 0xF8 - 0xFF, which never occur in UTF-8, so
+ * values written without a codec are still read back as plain text and a
+ * table may hold a mix of both.
+ *
+ * Codecs other than the built in ones must be registered before values
+ * they wrote can be decoded.
+ */
+public abstract class ContentsCodec {
+
+  private static final int FIRST_HEADER = 0xF8;
+
+  private static final ConcurrentMap<Byte, ContentsCodec> codecs = new ConcurrentHashMap<>();
+
+  /**
+   * Deflate at the default level
+   */
+  public static final ContentsCodec DEFLATE = register(new DeflateCodec((byte) 0xF8, null));
+
+  private final byte header;
+
+  /**
+   *
+   * @param header marks values written by this codec, 0xF8 - 0xFF
+   */
+  protected ContentsCodec(final byte header) {
+    if ((header & 0xFF) < FIRST_HEADER)
+      throw new IllegalArgumentException("header must be between 0xF8 and 0xFF");
+
+    this.header = header;
+  }
+
+  public byte getHeader() {
+    return header;
+  }
+
+  protected abstract byte[] compress(byte[] raw);
+
+  protected abstract byte[] decompress(byte[] data, int offset, int length) throws IOException;
+
+  /**
+   * Decompress a stream. Codecs that can decompress incrementally should
+   * override this; by default the whole stream is read into memory.
+   *
+   * @param in compressed data following the header byte
+   * @return decompressed data
+   * @throws IOException
+   */
+  protected InputStream decompress(final InputStream in) throws IOException {
+    byte[] data = ByteStreams.toByteArray(in);
+    return new ByteArrayInputStream(decompress(data, 0, data.length));
+  }
+
+  /**
+   * Make a codec's values readable
+   *
+   * @param codec
+   * @return codec
+   */
+  public static <C extends ContentsCodec> C register(final C codec) {
+    ContentsCodec existing = codecs.putIfAbsent(codec.getHeader(), codec);
+    if (existing != null && existing != codec)
+      throw new IllegalArgumentException("header already used by " + existing);
+
+    return codec;
+  }
+
+  /**
+   * @param contents
+   * @return header byte followed by the compressed UTF-8 text
+   */
+  public byte[] encode(final String contents) {
+    byte[] compressed = compress(contents.getBytes(StandardCharsets.UTF_8));
+
+    byte[] value = new byte[compressed.length + 1];
+    value[0] = header;
+    System.arraycopy(compressed, 0, value, 1, compressed.length);
+    return value;
+  }
+
+  /**
+   * Encode contents with a codec, or as plain UTF-8 if there is none
+   *
+   * @param codec may be null
+   * @param contents
+   * @return value to store
+   */
+  public static byte[] encode(final ContentsCodec codec, final String contents) {
+    return codec == null ? contents.getBytes(StandardCharsets.UTF_8) : codec.encode(contents);
+  }
+
+  /**
+   * Decode a value written by any registered codec or without one
+   *
+   * @param value
+   * @return contents
+   * @throws IOException if the value names an unknown codec or is corrupt
+   */
+  public static String decode(final byte[] value) throws IOException {
+
+    if (value.length == 0 || (value[0] & 0xFF) < FIRST_HEADER)
+      return new String(value, StandardCharsets.UTF_8);
+
+    ContentsCodec codec = codecs.get(value[0]);
+    if (codec == null)
+      throw new IOException(String.format("no codec registered for header 0x%02X", value[0] & 0xFF));
+
+    return new String(codec.decompress(value, 1, value.length - 1), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decode a stored value as it is read
+   *
+   * @param value stream of a value written by any registered codec or without one
+   * @return stream of the UTF-8 contents
+   * @throws IOException if the value names an unknown codec
+   */
+  public static InputStream decode(final InputStream value) throws IOException {
+
+    PushbackInputStream in = new PushbackInputStream(value, 1);
+    int first = in.read();
+    if (first == -1)
+      return in;
+
+    if (first < FIRST_HEADER) {
+      in.unread(first);
+      return in;
+    }
+
+    ContentsCodec codec = codecs.get((byte) first);
+    if (codec == null)
+      throw new IOException(String.format("no codec registered for header 0x%02X", first));
+
+    return codec.decompress(in);
+  }
+
+  /**
+   * Deflate, optionally with a preset dictionary of text common in the
+   * corpus, which helps most on short articles. The same dictionary must
+   * be registered under the same header wherever values are read.
+   */
+  public static class DeflateCodec extends ContentsCodec {
+
+    private final byte[] dictionary;
+
+    /**
+     *
+     * @param header
+     * @param dictionary preset dictionary, or null
+     */
+    public DeflateCodec(final byte header, final byte[] dictionary) {
+      super(header);
+      this.dictionary = dictionary == null ? null : Arrays.copyOf(dictionary, dictionary.length);
+    }
+
+    @Override
+    protected byte[] compress(final byte[] raw) {
+
+      Deflater deflater = new Deflater();
+      try {
+        if (dictionary != null)
+          deflater.setDictionary(dictionary);
+
+        deflater.setInput(raw);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+          int n = deflater.deflate(buffer);
+          out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    protected InputStream decompress(final InputStream in) throws IOException {
+      // InflaterInputStream can't supply a preset dictionary
+      if (dictionary != null)
+        return super.decompress(in);
+
+      return new InflaterInputStream(in);
+    }
+
+    @Override
+    protected byte[] decompress(final byte[] data, final int offset, final int length) throws IOException {
+
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(data, offset, length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3);
+        byte[] buffer = new byte[8192];
+        while (!inflater.finished()) {
+          int n = inflater.inflate(buffer);
+          if (n == 0 && !inflater.finished()) {
+            if (inflater.needsDictionary() && dictionary != null) {
+              inflater.setDictionary(dictionary);
+            } else if (inflater.needsInput() || inflater.needsDictionary()) {
+              throw new IOException("truncated or corrupt contents");
+            }
+          }
+          out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+      } catch (DataFormatException ex) {
+        throw new IOException(ex);
+      } finally {
+        inflater.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.WikipediaConstants;
+import java.util.Map;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+
+/**
+ * Time listing article metadata on a compacted articles table, first with
+ * all families in the default locality group and then with contents and
+ * metadata in separate groups, using the mini cluster.
+ *
+ * With separate groups a metadata-only scan never reads the contents
+ * blocks, so its time should drop while a full scan stays about the same.
+ *
+ * usage: LocalityGroupBenchmark [dump file]
+ */
+public class LocalityGroupBenchmark {
+
+  private static final int PASSES = 5;
+
+  private static void compact(Connector conn) throws Exception {
+    // flush and wait so every pass reads the same set of files
+    conn.tableOperations().compact(WikipediaConstants.ARTICLES_TABLE, null, null, true, true);
+  }
+
+  private static long metadataScan(WikipediaClient client) throws Exception {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < PASSES; i++)
+      client.listMetadata(null, Integer.MAX_VALUE);
+    return System.currentTimeMillis() - start;
+  }
+
+  private static long fullScan(Connector conn) throws Exception {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < PASSES; i++) {
+      Scanner scanner = conn.createScanner(WikipediaConstants.ARTICLES_TABLE, new Authorizations());
+      for (Map.Entry<Key, Value> entry : scanner) {
+        // read everything
+      }
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static void report(String name, long metadataMillis, long fullMillis) {
+    System.out.println(String.format("%-22s metadata only %8d ms  full rows %8d ms  (%d passes)",
+            name, metadataMillis, fullMillis, PASSES));
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    String dump = args.length > 0 ? args[0] : "data/WikipediaOlympics.xml";
+    Connector conn = ExampleMiniCluster.getConnector();
+
+    if (conn.tableOperations().exists(WikipediaConstants.ARTICLES_TABLE))
+      conn.tableOperations().delete(WikipediaConstants.ARTICLES_TABLE);
+
+    WikipediaClient client = new WikipediaClient(conn, new Authorizations());
+    client.ingest(dump);
+
+    // one default locality group
+    compact(conn);
+    long metadataBefore = metadataScan(client);
+    long fullBefore = fullScan(conn);
+    report("no locality groups", metadataBefore, fullBefore);
+
+    // contents and metadata in their own groups
+    client.setupLocalityGroups(false);
+    compact(conn);
+    long metadataAfter = metadataScan(client);
+    long fullAfter = fullScan(conn);
+    report("locality groups", metadataAfter, fullAfter);
+
+    System.out.println(String.format("metadata only scans took %.2fx the time with locality groups",
+            (double) metadataAfter / metadataBefore));
+
+    client.close();
+    ExampleMiniCluster.shutdown();
+    System.exit(0);
+  }
+}
@@ -28,6 +28,18 @@ public class SimpleIngestLauncher {
 	private static class Opts extends ClientOpts {
 	    @Parameter(names="--input", required = true, description="input file")
 	    String inputFile;
+	    
+	    @Parameter(names="--workers", description="number of render threads, 0 to parse and render on one thread")
+	    int workers = Runtime.getRuntime().availableProcessors();
+	    
+	    @Parameter(names="--queueSize", description="capacity of the queues between ingest stages")
+	    int queueSize = 1000;
+	    
+	    @Parameter(names="--compress", description="deflate article contents before writing them")
+	    boolean compress = false;
+	    
+	    @Parameter(names="--incremental", description="only write articles whose revision changed since the last load")
+	    boolean incremental = false;
 	}
 	
 	public static void main(String[] args) throws Exception {
@@ -42,6 +54,15 @@ public class SimpleIngestLauncher {
 		
 		// call ingest 
         WikipediaClient client = new WikipediaClient(conn, new Authorizations());
-		client.ingest(opts.inputFile);
+		if(opts.compress)
+			client.setContentsCodec(ContentsCodec.DEFLATE);
+		if(opts.incremental)
+			client.ingestIncremental(opts.inputFile);
+		else if(opts.workers > 0)
+			client.ingest(opts.inputFile, opts.workers, opts.queueSize);
+		else
+			client.ingest(opts.inputFile);
+		
+		client.close();
 	}
 }
@@ -16,11 +16,13 @@
  */
 package com.accumulobook.basic;
 
-import static com.google.common.collect.Lists.newArrayList;
-import static com.google.common.collect.Lists.transform;
-
 import com.google.common.base.Function;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.accumulobook.WikipediaConstants;
+import com.accumulobook.WikipediaSplitPlanner;
 import info.bliki.wiki.dump.IArticleFilter;
 import info.bliki.wiki.dump.Siteinfo;
 import info.bliki.wiki.dump.WikiArticle;
@@ -28,15 +30,24 @@ import info.bliki.wiki.dump.WikiXMLParser;
 import info.bliki.wiki.filter.PlainTextConverter;
 import info.bliki.wiki.model.WikiModel;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
-import org.apache.accumulo.core.client.BatchDeleter;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.ConditionalWriter;
@@ -47,6 +58,7 @@ import static org.apache.accumulo.core.client.ConditionalWriter.Status.UNKNOWN;
 import static org.apache.accumulo.core.client.ConditionalWriter.Status.VIOLATED;
 import org.apache.accumulo.core.client.ConditionalWriterConfig;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
@@ -57,6 +69,7 @@ import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.hadoop.io.Text;
 import org.slf4j.Logger;
@@ -71,7 +84,7 @@ public class WikipediaClient {
   
   public static class WikipediaEditException extends Exception {
 
-    private WikipediaEditException(Exception ex) {
+    WikipediaEditException(Exception ex) {
       super(ex);
     }
 
@@ -80,13 +93,60 @@ public class WikipediaClient {
     }
   }
  
-  private final Function<String, Range> rangeConverter = new Function<String,Range>() {
+  
+  /**
+   * One edit for updateContents(): replace a page's contents if its
+   * revision is still lastRevision
+   */
+  public static class ContentEdit {
+
+    private final String title;
+    private final String lastRevision;
+    private final String contents;
+
+    public ContentEdit(final String title, final String lastRevision, final String contents) {
+      this.title = title;
+      this.lastRevision = lastRevision;
+      this.contents = contents;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    public String getLastRevision() {
+      return lastRevision;
+    }
+
+    public String getContents() {
+      return contents;
+    }
+
+    String getNewRevision() {
+      return Integer.toString(Integer.parseInt(lastRevision) + 1);
+    }
+  }
+
+  // row an article is stored under
+  private static final Function<WikiArticle, String> titleConverter = new Function<WikiArticle, String>() {
     @Override
-    public Range apply(String f) {
-      return new Range(f);
-    }    
+    public String apply(WikiArticle article) {
+      return article.getTitle().replace(" ", "_");
+    }
   };
-  
+
+  // times updateContents() re-checks and resubmits edits whose outcome was unknown
+  public static final int MAX_UNKNOWN_RETRIES = 3;
+  public static final int DEFAULT_WRITE_THREADS = 10;
+  public static final int NUM_QUERY_THREADS = 10;
+
+  // pieces of large contents fetched per round trip by openContents()
+  public static final int CONTENTS_CHUNKS_PER_BATCH = 2;
+
+  // titles collected before deleting, and the longest any one waits
+  public static final int DELETE_BATCH_SIZE = 1000;
+  public static final long DELETE_LATENCY_MILLIS = 500;
+
   private static final Logger logger = LoggerFactory.getLogger(WikipediaClient.class);
   private PlainTextConverter converter;
   private WikiModel model;
@@ -94,23 +154,40 @@ public class WikipediaClient {
   private final Authorizations auths;
   private  BatchWriter batchWriter;
   private  ConditionalWriter conditionalWriter;
+  private  WikipediaDeleteService deleteService;
+  private volatile ArticleCache cache;
+  private volatile ContentsCodec codec;
+  // titles given to batchWriter, dropped from the cache again once flushed
+  private final Set<String> unflushedTitles = new HashSet<>();
   private boolean closed = true;
   
   private final Connector conn;
 
   public WikipediaClient(final Connector conn, final Authorizations auths) throws TableNotFoundException, AccumuloException, AccumuloSecurityException, TableExistsException {
+    this(conn, auths, DEFAULT_WRITE_THREADS);
+  }
+
+  /**
+   *
+   * @param conn
+   * @param auths
+   * @param numWriteThreads threads the ConditionalWriter uses to send edits,
+   * which bounds how many tablet servers updateContents() talks to at once
+   */
+  public WikipediaClient(final Connector conn, final Authorizations auths, final int numWriteThreads) throws TableNotFoundException, AccumuloException, AccumuloSecurityException, TableExistsException {
     
     this.auths = auths;
     this.conn = conn;
     
-	if(!conn.tableOperations().exists(WikipediaConstants.ARTICLES_TABLE))
-	  conn.tableOperations().create(WikipediaConstants.ARTICLES_TABLE);
+	// presplit so the first ingest is spread across the cluster
+	WikipediaSplitPlanner.createTable(conn, WikipediaConstants.ARTICLES_TABLE,
+	        WikipediaSplitPlanner.forCluster(conn).articleSplits());
 	
 	if(!conn.securityOperations().getUserAuthorizations("root").contains(WikipediaConstants.ARTICLE_CONTENTS_TOKEN))
 	  conn.securityOperations().changeUserAuthorizations("root", new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
 	
     ConditionalWriterConfig condConfig = new ConditionalWriterConfig();
-    condConfig.setMaxWriteThreads(10);
+    condConfig.setMaxWriteThreads(numWriteThreads);
 
     conditionalWriter = conn.createConditionalWriter(WikipediaConstants.ARTICLES_TABLE, condConfig);
     
@@ -119,6 +196,10 @@ public class WikipediaClient {
     config.setMaxWriteThreads(10);
     config.setMaxLatency(10, TimeUnit.SECONDS);
     batchWriter = conn.createBatchWriter(WikipediaConstants.ARTICLES_TABLE, config);
+
+    // one deleter for the life of the client, shared by all delete calls
+    deleteService = new WikipediaDeleteService(conn, auths, config, 10,
+            DELETE_BATCH_SIZE, DELETE_LATENCY_MILLIS, TimeUnit.MILLISECONDS);
     closed = false;
   }
   
@@ -132,22 +213,10 @@ public class WikipediaClient {
     if (closed)
       throw new IOException("client closed");
 
-    BatchWriterConfig config = new BatchWriterConfig();
-    config.setMaxMemory(1000000L);
-    config.setMaxWriteThreads(10);
-    config.setMaxLatency(10, TimeUnit.SECONDS);
+    ListenableFuture<Boolean> deleted = queueDelete(title);
+    deleteService.flush();
 
-    try {
-      BatchDeleter deleter = conn.createBatchDeleter(WikipediaConstants.ARTICLES_TABLE, auths, 10, null);
-      deleter.setRanges(Collections.singleton(new Range(title)));
-      deleter.delete();
-      deleter.close();
-      
-      return true;
-    } catch (TableNotFoundException | MutationsRejectedException ex) {
-      logger.error(ex.getMessage());
-    }
-    return false;
+    return waitFor(deleted);
   }
   
   /**
@@ -164,24 +233,63 @@ public class WikipediaClient {
     if (closed)
       throw new IOException("client closed");
 
-    BatchWriterConfig config = new BatchWriterConfig();
-    config.setMaxMemory(1000000L);
-    config.setMaxWriteThreads(10);
-    config.setMaxLatency(10, TimeUnit.SECONDS);
-    int numThreads = 10;
-    
+    List<ListenableFuture<Boolean>> deleted = new ArrayList<>(titles.length);
+    for (String title : titles) {
+      deleted.add(queueDelete(title));
+    }
+    deleteService.flush();
+
+    boolean success = true;
+    for (ListenableFuture<Boolean> d : deleted) {
+      success &= waitFor(d);
+    }
+    return success;
+  }
+
+  /**
+   * Queue an article for deletion along with other callers' deletes,
+   * without waiting for it
+   *
+   * @param title
+   * @return future that is true once the delete is durable
+   * @throws IOException
+   */
+  public ListenableFuture<Boolean> deleteArticleAsync(final String title) throws IOException {
+
+    if (closed)
+      throw new IOException("client closed");
+
+    return queueDelete(title);
+  }
+
+  private ListenableFuture<Boolean> queueDelete(final String title) {
+
+    final ArticleCache articleCache = cache;
+    if (articleCache == null)
+      return deleteService.delete(title);
+
+    // drop the entry again once deleted, in case a read cached it meanwhile
+    articleCache.invalidate(title);
+    ListenableFuture<Boolean> deleted = deleteService.delete(title);
+    deleted.addListener(new Runnable() {
+      @Override
+      public void run() {
+        articleCache.invalidate(title);
+      }
+    }, MoreExecutors.sameThreadExecutor());
+
+    return deleted;
+  }
+
+  private static boolean waitFor(final ListenableFuture<Boolean> deleted) throws IOException {
     try {
-      BatchDeleter deleter = conn.createBatchDeleter(
-              WikipediaConstants.ARTICLES_TABLE, auths, numThreads, config);
-      deleter.setRanges(transform(newArrayList(titles), rangeConverter));
-      deleter.delete();
-      deleter.close();
-      
-      return true;
-    } catch (TableNotFoundException | MutationsRejectedException ex) {
-      logger.error(ex.getMessage());      
+      return deleted.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException(ex);
+    } catch (ExecutionException ex) {
+      throw new IOException(ex.getCause());
     }
-    return false;
   }
   
   /**
@@ -200,6 +308,192 @@ public class WikipediaClient {
     if (closed) 
       throw new IOException("client closed");
 
+    Map<String, Integer> chunks;
+    try {
+      chunks = storedChunks(Collections.singleton(title));
+    } catch (TableNotFoundException ex) {
+      throw new WikipediaEditException(ex);
+    }
+
+    // submit to the server
+    boolean accepted = false;
+    try {
+      accepted = editAccepted(conditionalWriter.write(contentMutation(title, lastRevision, contents, chunks.get(title))));
+      return accepted;
+    } finally {
+      contentEdited(title, lastRevision, contents, accepted);
+    }
+  }
+
+  /**
+   * Apply many edits in one pass. All edits are handed to the
+   * ConditionalWriter together so they are sent to each tablet server in
+   * batches, rather than one round trip per page.
+   * 
+   * Edits whose outcome is UNKNOWN are checked by re-reading the page: if
+   * it holds our revision and contents the edit is ACCEPTED, if it still
+   * holds lastRevision the edit is submitted again, and otherwise someone
+   * else changed the page and the edit is REJECTED. Edits still unknown
+   * after MAX_UNKNOWN_RETRIES checks are reported as UNKNOWN.
+   *
+   * @param edits at most one edit per title
+   * @return status of each edit by title
+   * @throws WikipediaEditException
+   * @throws IOException
+   */
+  public Map<String, ConditionalWriter.Status> updateContents(
+          final Collection<ContentEdit> edits) throws WikipediaEditException, IOException {
+
+    if (closed)
+      throw new IOException("client closed");
+
+    Map<String, ContentEdit> byTitle = new HashMap<>();
+    for (ContentEdit edit : edits) {
+      if (byTitle.put(edit.getTitle(), edit) != null)
+        throw new IllegalArgumentException("more than one edit of " + edit.getTitle());
+    }
+
+    Map<String, ContentEdit> pending = new HashMap<>(byTitle);
+
+    Map<String, ConditionalWriter.Status> statuses = new HashMap<>();
+
+    for (int attempt = 0; !pending.isEmpty(); attempt++) {
+
+      final Map<String, Integer> chunks;
+      try {
+        chunks = storedChunks(pending.keySet());
+      } catch (TableNotFoundException ex) {
+        throw new WikipediaEditException(ex);
+      }
+
+      Iterator<ConditionalWriter.Result> results =
+              conditionalWriter.write(Iterators.transform(pending.values().iterator(), new Function<ContentEdit, ConditionalMutation>() {
+                @Override
+                public ConditionalMutation apply(ContentEdit e) {
+                  return contentMutation(e.getTitle(), e.getLastRevision(), e.getContents(), chunks.get(e.getTitle()));
+                }
+              }));
+
+      List<ContentEdit> unknown = new ArrayList<>();
+      while (results.hasNext()) {
+        ConditionalWriter.Result r = results.next();
+        String title = new String(r.getMutation().getRow(), StandardCharsets.UTF_8);
+
+        ConditionalWriter.Status status;
+        try {
+          status = r.getStatus();
+        } catch (AccumuloException | AccumuloSecurityException ex) {
+          logger.warn("error writing " + title + ", checking whether it was applied", ex);
+          status = UNKNOWN;
+        }
+
+        statuses.put(title, status);
+        if (status == UNKNOWN)
+          unknown.add(pending.get(title));
+      }
+
+      if (attempt == MAX_UNKNOWN_RETRIES)
+        break;
+
+      pending.clear();
+      for (ContentEdit edit : unknown) {
+        Map<String, String> current;
+        try {
+          current = getContentsAndRevision(edit.getTitle());
+        } catch (TableNotFoundException ex) {
+          throw new WikipediaEditException(ex);
+        }
+
+        String revision = current.get(WikipediaConstants.REVISION_QUAL);
+        if (revision == null) {
+          // deleted in the meantime
+          statuses.put(edit.getTitle(), REJECTED);
+        } else if (revision.equals(edit.getNewRevision())
+                && edit.getContents().equals(current.get(WikipediaConstants.CONTENTS_FAMILY))) {
+          statuses.put(edit.getTitle(), ACCEPTED);
+        } else if (revision.equals(edit.getLastRevision())) {
+          pending.put(edit.getTitle(), edit);
+        } else {
+          statuses.put(edit.getTitle(), REJECTED);
+        }
+      }
+    }
+
+    for (ContentEdit edit : byTitle.values()) {
+      contentEdited(edit.getTitle(), edit.getLastRevision(), edit.getContents(),
+              statuses.get(edit.getTitle()) == ACCEPTED);
+    }
+
+    return statuses;
+  }
+
+  /**
+   * Bring the article cache up to date after an edit of a page's contents
+   */
+  void contentEdited(
+          final String title,
+          final String lastRevision,
+          final String contents,
+          final boolean accepted) {
+
+    ArticleCache articleCache = cache;
+    if (articleCache != null) {
+      String newRevision = Integer.toString(Integer.parseInt(lastRevision) + 1);
+      articleCache.edited(title, lastRevision, newRevision, ContentsCodec.encode(codec, contents), accepted);
+    }
+  }
+
+  /**
+   * Look up how many pieces each page's contents are stored in. Read just
+   * before an edit, this is the count at lastRevision whenever the edit is
+   * accepted, since any change in between would also change the revision.
+   *
+   * @param titles
+   * @return count by title, 0 for pages stored whole or missing
+   * @throws TableNotFoundException
+   */
+  Map<String, Integer> storedChunks(final Collection<String> titles) throws TableNotFoundException {
+
+    Map<String, Integer> chunks = new HashMap<>();
+    List<Range> ranges = new ArrayList<>(titles.size());
+    for (String title : titles) {
+      chunks.put(title, 0);
+      ranges.add(Range.exact(title));
+    }
+
+    if (ranges.isEmpty())
+      return chunks;
+
+    BatchScanner scanner = conn.createBatchScanner(WikipediaConstants.ARTICLES_TABLE, auths, NUM_QUERY_THREADS);
+    try {
+      scanner.setRanges(ranges);
+      scanner.fetchColumn(WikipediaConstants.CONTENTS_FAMILY_TEXT, new Text(ChunkedContents.COUNT_QUAL));
+      for (Map.Entry<Key, Value> entry : scanner) {
+        chunks.put(entry.getKey().getRow().toString(),
+                Integer.parseInt(entry.getValue().toString()));
+      }
+    } finally {
+      scanner.close();
+    }
+
+    return chunks;
+  }
+
+  /**
+   * Build the conditional mutation for an edit of a page's contents
+   *
+   * @param title
+   * @param lastRevision
+   * @param contents
+   * @param storedChunks count of pieces the page is stored in now
+   * @return mutation that only applies if lastRevision is still current
+   */
+  ConditionalMutation contentMutation(
+          final String title,
+          final String lastRevision,
+          final String contents,
+          final int storedChunks) {
+
     final String newRevision = Integer.toString(Integer.parseInt(lastRevision) + 1);
 
     ConditionalMutation cm = new ConditionalMutation(title);
@@ -216,10 +510,20 @@ public class WikipediaClient {
             WikipediaConstants.REVISION_QUAL,
             newRevision);
 
-    cm.put(WikipediaConstants.CONTENTS_FAMILY, "", contents);
+    // every piece is covered by the revision condition
+    ChunkedContents.put(cm, ContentsCodec.encode(codec, contents), storedChunks);
 
-    // submit to the server
-    ConditionalWriter.Result r = conditionalWriter.write(cm);
+    return cm;
+  }
+
+  /**
+   * Interpret the server's answer to an edit
+   *
+   * @param r
+   * @return true if the edit was applied
+   * @throws WikipediaEditException
+   */
+  static boolean editAccepted(final ConditionalWriter.Result r) throws WikipediaEditException {
     try {
       switch (r.getStatus()) {
         case ACCEPTED:
@@ -242,10 +546,13 @@ public class WikipediaClient {
   }
 
   /**
+   * Without flush, a cached copy of the article may show the old value
+   * until the client's writer is next flushed.
    *
    * @param title
    * @param attribute
    * @param value
+   * @param flush
    * @throws MutationsRejectedException
    */
   public void updateMetadata(
@@ -261,10 +568,40 @@ public class WikipediaClient {
     Mutation m = new Mutation(title);
     m.put(WikipediaConstants.METADATA_FAMILY, attribute, value);
     
+    // stops reads already under way from caching the old value
+    ArticleCache articleCache = cache;
+    if (articleCache != null)
+      articleCache.invalidate(title);
+
     batchWriter.addMutation(m);
+    synchronized (unflushedTitles) {
+      unflushedTitles.add(title);
+    }
     
     if(flush)
-      batchWriter.flush();
+      flushWrites();
+  }
+
+  /**
+   * Flush batchWriter, then drop what it wrote from the cache, which reads
+   * made before the flush may have filled with old values
+   */
+  private void flushWrites() throws MutationsRejectedException {
+
+    List<String> written;
+    synchronized (unflushedTitles) {
+      written = new ArrayList<>(unflushedTitles);
+      unflushedTitles.clear();
+    }
+
+    batchWriter.flush();
+
+    ArticleCache articleCache = cache;
+    if (articleCache != null) {
+      for (String title : written) {
+        articleCache.invalidate(title);
+      }
+    }
   }
   
   /**
@@ -274,22 +611,9 @@ public class WikipediaClient {
    */
   public void printArticle(String articleTitle) throws TableNotFoundException {
 
-    Scanner scanner = conn.createScanner(WikipediaConstants.ARTICLES_TABLE, auths);
-    // attempt to read one article
-    scanner.setRange(new Range(articleTitle));
-
-    for (Map.Entry<Key, Value> entry : scanner) {
-      Key key = entry.getKey();
-      String field;
-      if (key.getColumnFamily().toString().equals("contents")) {
-        field = "contents";
-      } else {
-        field = key.getColumnQualifier().toString();
-      }
-
-      String valueString = new String(entry.getValue().get());
-      System.out.println(field + "\t" + valueString);
-    }
+    // contents may be compressed or in pieces, so read through Article
+    for (Map.Entry<String, String> field : getArticle(articleTitle).getFields().entrySet())
+      System.out.println(field.getKey() + "\t" + field.getValue());
   }
   
   /**
@@ -314,6 +638,77 @@ public class WikipediaClient {
     }
   }
 
+  /**
+   * Read an article's metadata without its contents. Fetching only the
+   * metadata family lets the tablet server skip the contents locality
+   * group on disk once setupLocalityGroups() has been applied.
+   *
+   * @param articleTitle
+   * @return metadata by qualifier, e.g. revision, timestamp, namespace and id;
+   * empty if the article does not exist
+   * @throws TableNotFoundException
+   */
+  public Map<String, String> getMetadata(final String articleTitle) throws TableNotFoundException {
+
+    Scanner scanner = conn.createScanner(WikipediaConstants.ARTICLES_TABLE, auths);
+    scanner.setRange(Range.exact(articleTitle));
+    scanner.fetchColumnFamily(WikipediaConstants.METADATA_FAMILY_TEXT);
+
+    Map<String, String> metadata = new HashMap<>();
+    for (Map.Entry<Key, Value> entry : scanner) {
+      metadata.put(entry.getKey().getColumnQualifier().toString(),
+              new String(entry.getValue().get(), StandardCharsets.UTF_8));
+    }
+
+    return metadata;
+  }
+
+  /**
+   * @param articleTitle
+   * @return current revision, or null if the article does not exist
+   * @throws TableNotFoundException
+   */
+  public String getRevision(final String articleTitle) throws TableNotFoundException {
+    return getMetadata(articleTitle).get(WikipediaConstants.REVISION_QUAL);
+  }
+
+  /**
+   * List the metadata of articles in title order, reading only the
+   * metadata locality group
+   *
+   * @param startTitle first title to list, or null to start at the beginning
+   * @param limit most articles to return
+   * @return metadata by qualifier, by title
+   * @throws TableNotFoundException
+   */
+  public SortedMap<String, Map<String, String>> listMetadata(
+          final String startTitle,
+          final int limit) throws TableNotFoundException {
+
+    Scanner scanner = conn.createScanner(WikipediaConstants.ARTICLES_TABLE, auths);
+    scanner.setRange(new Range(startTitle, null));
+    scanner.fetchColumnFamily(WikipediaConstants.METADATA_FAMILY_TEXT);
+
+    SortedMap<String, Map<String, String>> articles = new TreeMap<>();
+    for (Map.Entry<Key, Value> entry : scanner) {
+      String title = entry.getKey().getRow().toString();
+
+      Map<String, String> metadata = articles.get(title);
+      if (metadata == null) {
+        if (articles.size() == limit)
+          break;
+
+        metadata = new HashMap<>();
+        articles.put(title, metadata);
+      }
+
+      metadata.put(entry.getKey().getColumnQualifier().toString(),
+              new String(entry.getValue().get(), StandardCharsets.UTF_8));
+    }
+
+    return articles;
+  }
+
   /**
    * 
    * Retrieve an article's contents and revision number.
@@ -327,37 +722,204 @@ public class WikipediaClient {
    */
   public Map<String, String> getContentsAndRevision(String articleTitle) throws TableNotFoundException, IOException {
 
+    Article article;
+    if (cache != null) {
+      article = getArticle(articleTitle);
+    } else {
+      Scanner scanner = conn.createScanner(WikipediaConstants.ARTICLES_TABLE, auths);
+
+      // ensure we get synchronized revision and contents
+      scanner.enableIsolation();
+
+      scanner.setRange(Range.exact(articleTitle));
+      scanner.fetchColumnFamily(WikipediaConstants.CONTENTS_FAMILY_TEXT);
+      scanner.fetchColumn(WikipediaConstants.METADATA_FAMILY_TEXT, WikipediaConstants.REVISION_QUAL_TEXT);
+
+      article = Article.fromEntries(scanner);
+    }
+
+    Map<String, String> result = new HashMap<>();
+    String contents = article.getContents();
+    if (contents != null)
+      result.put(WikipediaConstants.CONTENTS_FAMILY, contents);
+    if (article.getRevision() != null)
+      result.put(WikipediaConstants.REVISION_QUAL, article.getRevision());
+  
+    return result;
+  }
+
+  /**
+   * Stream an article's contents without holding them all in memory.
+   * Contents stored in pieces are fetched from the tablet server a few
+   * pieces at a time as the stream is read, and decompressed as they go.
+   *
+   * @param articleTitle
+   * @return stream of the contents as UTF-8, or null if the article has none
+   * @throws TableNotFoundException
+   * @throws IOException
+   */
+  public InputStream openContents(final String articleTitle) throws TableNotFoundException, IOException {
+
     Scanner scanner = conn.createScanner(WikipediaConstants.ARTICLES_TABLE, auths);
 
-    // ensure we get synchronized revision and contents
+    // keep the pieces from different revisions from being mixed
     scanner.enableIsolation();
 
     scanner.setRange(Range.exact(articleTitle));
     scanner.fetchColumnFamily(WikipediaConstants.CONTENTS_FAMILY_TEXT);
-    scanner.fetchColumn(WikipediaConstants.METADATA_FAMILY_TEXT, WikipediaConstants.REVISION_QUAL_TEXT);
+    scanner.setBatchSize(CONTENTS_CHUNKS_PER_BATCH);
 
-    Map<String, String> result = new HashMap<>();
+    Iterator<Map.Entry<Key, Value>> entries = scanner.iterator();
+    if (!entries.hasNext())
+      return null;
 
-    for(Map.Entry<Key, Value> entry : scanner) {
-      Key key = entry.getKey();
-      String valueString = new String(entry.getValue().get(), "UTF-8");
-      
-      if (key.getColumnFamily().toString().equals(WikipediaConstants.CONTENTS_FAMILY)) 
-        result.put(WikipediaConstants.CONTENTS_FAMILY, valueString);
-       
-      if(key.getColumnFamily().toString().equals(WikipediaConstants.METADATA_FAMILY))
-        result.put(WikipediaConstants.REVISION_QUAL, valueString);
-    }
-  
-    return result;
+    return ContentsCodec.decode(new ChunkedContents.ChunkInputStream(entries));
   }
   
-  
+  /**
+   * Keep recently read articles in memory. Edits, metadata updates and
+   * deletes made through this client keep the cache current; changes made
+   * by other clients are not seen until an entry is evicted.
+   *
+   * @param maxBytes approximate memory the cached articles may use
+   */
+  public void enableCache(final long maxBytes) {
+    cache = new ArticleCache(maxBytes);
+  }
+
+  /**
+   * Compress the contents of articles written from now on. Articles
+   * already in the table are still read back, whichever codec wrote them.
+   *
+   * @param codec codec for new contents, or null to store plain text
+   */
+  public void setContentsCodec(final ContentsCodec codec) {
+    this.codec = codec;
+  }
+
+  public ContentsCodec getContentsCodec() {
+    return codec;
+  }
+
+  /**
+   * @return hit, miss and eviction counts, or null if the cache is not enabled
+   */
+  public CacheStats getCacheStats() {
+    ArticleCache articleCache = cache;
+    return articleCache == null ? null : articleCache.stats();
+  }
+
+  /**
+   * Read a whole article row, from the cache if enabled. Isolation keeps
+   * the contents and revision in sync.
+   *
+   * @param articleTitle
+   * @return article, with no fields if it does not exist
+   * @throws TableNotFoundException
+   */
+  private Article getArticle(final String articleTitle) throws TableNotFoundException {
+
+    ArticleCache articleCache = cache;
+    long token = 0;
+    if (articleCache != null) {
+      Article cached = articleCache.get(articleTitle);
+      if (cached != null)
+        return cached;
+      token = articleCache.loading(articleTitle);
+    }
+
+    Scanner scanner = conn.createScanner(WikipediaConstants.ARTICLES_TABLE, auths);
+    scanner.enableIsolation();
+    scanner.setRange(Range.exact(articleTitle));
+
+    Article article = Article.fromEntries(scanner);
+
+    // don't cache misses, the article may be ingested by another client
+    if (articleCache != null && !article.isEmpty())
+      articleCache.loaded(articleTitle, token, article);
+
+    return article;
+  }
+
+  /**
+   * Fetch many articles in one pass. A BatchScanner looks up all titles in
+   * parallel and a WholeRowIterator sends each row back as a single entry,
+   * so every article arrives complete.
+   *
+   * @param titles
+   * @param families column families to read, e.g. only metadata for a
+   * listing; all families if none are given
+   * @return articles by title; titles that don't exist are left out
+   * @throws TableNotFoundException
+   * @throws IOException
+   */
+  public Map<String, Article> getArticles(
+          final Collection<String> titles,
+          final String... families) throws TableNotFoundException, IOException {
+
+    Map<String, Article> articles = new HashMap<>();
+
+    // only whole rows are cached, so partial reads always go to the server
+    ArticleCache articleCache = families.length == 0 ? cache : null;
+
+    List<Range> ranges = new ArrayList<>();
+    Map<String, Long> tokens = new HashMap<>();
+    for (String title : new HashSet<>(titles)) {
+      Article cached = articleCache == null ? null : articleCache.get(title);
+      if (cached != null) {
+        articles.put(title, cached);
+        continue;
+      }
+
+      ranges.add(Range.exact(title));
+      if (articleCache != null)
+        tokens.put(title, articleCache.loading(title));
+    }
+
+    if (ranges.isEmpty())
+      return articles;
+
+    BatchScanner scanner = conn.createBatchScanner(WikipediaConstants.ARTICLES_TABLE, auths, NUM_QUERY_THREADS);
+    try {
+      scanner.setRanges(ranges);
+      for (String family : families) {
+        scanner.fetchColumnFamily(new Text(family));
+      }
+      scanner.addScanIterator(new IteratorSetting(50, "wholeRow", WholeRowIterator.class));
+
+      for (Map.Entry<Key, Value> row : scanner) {
+        String title = row.getKey().getRow().toString();
+        Article article = Article.fromEntries(WholeRowIterator.decodeRow(row.getKey(), row.getValue()).entrySet());
+
+        articles.put(title, article);
+        if (articleCache != null)
+          articleCache.loaded(title, tokens.get(title), article);
+      }
+    } finally {
+      scanner.close();
+    }
+
+    return articles;
+  }
+
+  ConditionalWriter getConditionalWriter() {
+    return conditionalWriter;
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
   /**
    *
    * @throws MutationsRejectedException
    */
   public void close() throws MutationsRejectedException {
+    try {
+      deleteService.close();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
     conditionalWriter.close();
     batchWriter.close();
     closed = true;
@@ -372,28 +934,73 @@ public class WikipediaClient {
 
       System.out.println("Parsing " + article.getTitle());
 
-      String wikitext = article.getText();
-      String plaintext = model.render(converter, wikitext)
-              .replace("{{", " ")
-              .replace("}}", " ");
-
-      Mutation m = new Mutation(article.getTitle().replace(" ", "_"));
-
-      m.put(WikipediaConstants.CONTENTS_FAMILY, "", plaintext);
-      m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.NAMESPACE_QUAL, article.getNamespace());
-      m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.TIMESTAMP_QUAL, article.getTimeStamp());
-      m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.ID_QUAL, article.getId());
-      m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.REVISION_QUAL, article.getRevisionId());
-
+      // pages are assumed new, see toMutations()
+      List<Mutation> mutations = toMutations(article, render(model, converter, article.getText()), codec, 0);
 
       try {
-        batchWriter.addMutation(m);
+        batchWriter.addMutations(mutations);
       } catch (MutationsRejectedException e) {
         logger.error(e.getMessage());
       }
     }
   }
 
+  /**
+   * Render wiki markup to the plain text stored in the contents column.
+   * WikiModel is not thread safe, so concurrent callers must each supply
+   * their own model and converter.
+   * 
+   * @param model
+   * @param converter
+   * @param wikitext
+   * @return plain text
+   */
+  public static String render(final WikiModel model, final PlainTextConverter converter, final String wikitext) {
+    return model.render(converter, wikitext)
+            .replace("{{", " ")
+            .replace("}}", " ");
+  }
+
+  /**
+   * Build the article table mutations for a parsed, new article
+   * 
+   * @param article
+   * @param plaintext
+   * @return mutations, in the order they must be written
+   */
+  public static List<Mutation> toMutations(final WikiArticle article, final String plaintext) {
+    return toMutations(article, plaintext, null, 0);
+  }
+
+  /**
+   * Build the article table mutations for a parsed article: one for each
+   * piece of large contents, then one for the rest of the row. Pieces of
+   * a stored, longer version are only removed when storedChunks says how
+   * many there are.
+   * 
+   * @param article
+   * @param plaintext
+   * @param codec compresses the contents, or null to store plain text
+   * @param storedChunks count of pieces the article is stored in now, 0
+   * if it is new or stored whole
+   * @return mutations, in the order they must be written
+   */
+  public static List<Mutation> toMutations(
+          final WikiArticle article,
+          final String plaintext,
+          final ContentsCodec codec,
+          final int storedChunks) {
+    
+    Mutation m = new Mutation(titleConverter.apply(article));
+
+    m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.NAMESPACE_QUAL, article.getNamespace());
+    m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.TIMESTAMP_QUAL, article.getTimeStamp());
+    m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.ID_QUAL, article.getId());
+    m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.REVISION_QUAL, article.getRevisionId());
+    
+    return ChunkedContents.mutations(m, ContentsCodec.encode(codec, plaintext), storedChunks);
+  }
+
   /**
    *
    * Parse all Wikipedia articles found in the file
@@ -410,6 +1017,89 @@ public class WikipediaClient {
     _ingest(wxp, conn);
   }
 
+  /**
+   *
+   * Parse all Wikipedia articles found in the file using a staged pipeline.
+   * The parser thread only hands articles off to a bounded queue; rendering
+   * and mutation building happen on numWorkers threads and a single writer
+   * thread feeds the BatchWriter.
+   * 
+   * @param filename
+   * @param numWorkers number of render threads
+   * @param queueSize capacity of each hand-off queue
+   * @throws Exception
+   */
+  public void ingest(final String filename, final int numWorkers, final int queueSize) throws Exception {
+    
+    if (closed) 
+      throw new IOException("client closed");
+    
+    WikipediaIngestPipeline pipeline = new WikipediaIngestPipeline(batchWriter, numWorkers, queueSize, codec);
+    WikiXMLParser wxp = new WikiXMLParser(filename, pipeline);
+
+    System.out.println("Parsing articles with " + numWorkers + " render threads ...");
+    pipeline.start();
+    try {
+      wxp.parse();
+    } finally {
+      pipeline.finish();
+    }
+    
+    flushWrites();
+    if (cache != null)
+      cache.invalidateAll();
+    pipeline.printReport(System.out);
+    System.out.println("done.");
+  }
+
+  /**
+   *
+   * Parse all Wikipedia articles found in the file, but only render and
+   * write those that are new or whose revision differs from the stored
+   * one. Stored revisions are looked up a batch of articles at a time.
+   * 
+   * @param filename
+   * @throws Exception
+   */
+  public void ingestIncremental(final String filename) throws Exception {
+    
+    if (closed) 
+      throw new IOException("client closed");
+
+    final WikiModel incrementalModel = new WikiModel("", "");
+    final PlainTextConverter incrementalConverter = new PlainTextConverter(true);
+
+    ChangedArticleFilter filter = new ChangedArticleFilter(conn, auths,
+            ChangedArticleFilter.DEFAULT_BATCH_SIZE, titleConverter, false,
+            new ChangedArticleFilter.Handler() {
+              @Override
+              public void process(WikiArticle page, Article existing) throws SAXException {
+
+                List<Mutation> mutations = toMutations(page, render(incrementalModel, incrementalConverter, page.getText()),
+                        codec, existing == null ? 0 : existing.getChunks());
+                try {
+                  batchWriter.addMutations(mutations);
+                } catch (MutationsRejectedException e) {
+                  logger.error(e.getMessage());
+                }
+
+                ArticleCache articleCache = cache;
+                if (articleCache != null)
+                  articleCache.invalidate(titleConverter.apply(page));
+              }
+            });
+
+    System.out.println("Parsing articles, writing changed revisions only ...");
+    new WikiXMLParser(filename, filter).parse();
+    filter.finish();
+
+    flushWrites();
+    if (cache != null)
+      cache.invalidateAll();
+    System.out.println("done. " + filter.getChanged() + " articles written, "
+            + filter.getSkipped() + " unchanged articles skipped.");
+  }
+
   /**
    *
    * Download the Wikipedia pages specified by the pages parameter,
@@ -444,7 +1134,9 @@ public class WikipediaClient {
     System.out.println("Parsing articles ...");
     wxp.parse();
 
-	batchWriter.flush();
+	flushWrites();
+    if (cache != null)
+      cache.invalidateAll();
     System.out.println("done.");
   }
   
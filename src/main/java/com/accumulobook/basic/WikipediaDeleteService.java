@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import com.accumulobook.WikipediaConstants;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.accumulo.core.client.BatchDeleter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.security.Authorizations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes articles in batches using one BatchDeleter for the life of the
+ * service.
+ *
+ * Callers on any thread hand titles to delete() and get a future back. A
+ * single flusher thread collects titles until maxBatchSize are waiting or
+ * the oldest has waited maxLatency, then removes them all with one multi
+ * range delete. The futures complete once that delete has returned, at
+ * which point the BatchDeleter's writer has been flushed and the deletes
+ * are durable.
+ */
+public class WikipediaDeleteService {
+
+  private static final Logger logger = LoggerFactory.getLogger(WikipediaDeleteService.class);
+
+  // markers asking the flusher to delete what it has now, or to stop
+  private static final PendingDelete FLUSH = new PendingDelete(null);
+  private static final PendingDelete END_OF_DELETES = new PendingDelete(null);
+
+  private final BatchDeleter deleter;
+  private final int maxBatchSize;
+  private final long maxLatencyNanos;
+  private final BlockingQueue<PendingDelete> deletes = new LinkedBlockingQueue<>();
+  private final Thread flusher;
+  // guards closed, so nothing is queued after the flusher's final drain
+  private final Object lock = new Object();
+  private boolean closed = false;
+
+  private static class PendingDelete {
+
+    private final String title;
+    private final SettableFuture<Boolean> result = SettableFuture.create();
+
+    PendingDelete(String title) {
+      this.title = title;
+    }
+  }
+
+  /**
+   *
+   * @param conn
+   * @param auths authorizations needed to see the entries being deleted
+   * @param config config for the BatchDeleter's writer
+   * @param numQueryThreads threads the BatchDeleter uses to find entries
+   * @param maxBatchSize titles to collect before deleting
+   * @param maxLatency longest a title waits before it is deleted
+   * @param unit
+   * @throws TableNotFoundException
+   */
+  public WikipediaDeleteService(
+          final Connector conn,
+          final Authorizations auths,
+          final BatchWriterConfig config,
+          final int numQueryThreads,
+          final int maxBatchSize,
+          final long maxLatency,
+          final TimeUnit unit) throws TableNotFoundException {
+
+    if (maxBatchSize < 1)
+      throw new IllegalArgumentException("batch size must be positive");
+
+    this.deleter = conn.createBatchDeleter(WikipediaConstants.ARTICLES_TABLE, auths, numQueryThreads, config);
+    this.maxBatchSize = maxBatchSize;
+    this.maxLatencyNanos = unit.toNanos(maxLatency);
+
+    flusher = new Thread(new Flusher(), "wiki-delete-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Queue an article for deletion
+   *
+   * @param title
+   * @return future that is true once the article is durably deleted, or
+   * false if the delete failed
+   */
+  public ListenableFuture<Boolean> delete(final String title) {
+
+    PendingDelete d = new PendingDelete(title);
+    synchronized (lock) {
+      if (closed)
+        return Futures.immediateFailedFuture(new IOException("delete service closed"));
+      deletes.add(d);
+    }
+    return d.result;
+  }
+
+  /**
+   * Delete everything queued so far without waiting for the batch to fill
+   */
+  public void flush() {
+    synchronized (lock) {
+      if (!closed)
+        deletes.add(FLUSH);
+    }
+  }
+
+  /**
+   * Delete everything queued and release the BatchDeleter
+   *
+   * @throws InterruptedException
+   */
+  public void close() throws InterruptedException {
+
+    synchronized (lock) {
+      if (!closed) {
+        closed = true;
+        deletes.add(END_OF_DELETES);
+      }
+    }
+    flusher.join();
+    deleter.close();
+  }
+
+  private class Flusher implements Runnable {
+
+    @Override
+    public void run() {
+
+      List<PendingDelete> batch = new ArrayList<>();
+      boolean done = false;
+
+      try {
+        while (!done) {
+          batch.clear();
+
+          // wait for the first title, then until the batch fills or the first has waited long enough
+          PendingDelete d = deletes.take();
+          long deadline = System.nanoTime() + maxLatencyNanos;
+
+          while (true) {
+            if (d == END_OF_DELETES) {
+              done = true;
+              break;
+            }
+            if (d == FLUSH)
+              break;
+
+            if (d != null)
+              batch.add(d);
+
+            if (batch.size() >= maxBatchSize)
+              break;
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+              break;
+
+            d = deletes.poll(remaining, TimeUnit.NANOSECONDS);
+          }
+
+          if (!batch.isEmpty())
+            delete(batch);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        // anything still queued will never be deleted
+        List<PendingDelete> remaining = new ArrayList<>(batch);
+        synchronized (lock) {
+          closed = true;
+          deletes.drainTo(remaining);
+        }
+        for (PendingDelete d : remaining) {
+          d.result.setException(new IOException("delete service closed"));
+        }
+      }
+    }
+
+    private void delete(final List<PendingDelete> batch) {
+
+      TreeSet<String> titles = new TreeSet<>();
+      for (PendingDelete d : batch) {
+        titles.add(d.title);
+      }
+
+      List<Range> ranges = new ArrayList<>(titles.size());
+      for (String title : titles) {
+        ranges.add(new Range(title));
+      }
+
+      boolean success;
+      try {
+        deleter.setRanges(ranges);
+        deleter.delete();
+        success = true;
+      } catch (TableNotFoundException | MutationsRejectedException ex) {
+        logger.error(ex.getMessage());
+        success = false;
+      } catch (RuntimeException ex) {
+        // keep the flusher alive for later batches
+        logger.error("delete failed", ex);
+        for (PendingDelete d : batch) {
+          d.result.setException(ex);
+        }
+        batch.clear();
+        return;
+      }
+
+      for (PendingDelete d : batch) {
+        d.result.set(success);
+      }
+      batch.clear();
+    }
+  }
+}
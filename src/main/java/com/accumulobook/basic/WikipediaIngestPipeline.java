@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.basic;
+
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+import info.bliki.wiki.filter.PlainTextConverter;
+import info.bliki.wiki.model.WikiModel;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.data.Mutation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * A three stage ingest pipeline.
+ *
+ * The SAX parser thread calls process() which only enqueues the raw article.
+ * A pool of worker threads renders articles and builds mutations, and a
+ * single writer thread hands them to the BatchWriter, adding each
+ * article's mutations together in the order they were built. Both hand-off
+ * queues are bounded, so a slow stage blocks the one in front of it instead
+ * of letting articles pile up in memory.
+ */
+public class WikipediaIngestPipeline implements IArticleFilter {
+
+  private static final Logger logger = LoggerFactory.getLogger(WikipediaIngestPipeline.class);
+
+  // markers telling the downstream stage that no more input will arrive
+  private static final WikiArticle END_OF_ARTICLES = new WikiArticle();
+  private static final List<Mutation> END_OF_MUTATIONS = new ArrayList<>();
+
+  private final BatchWriter batchWriter;
+  private final ContentsCodec codec;
+  private final int numWorkers;
+  private final BlockingQueue<WikiArticle> articles;
+  private final BlockingQueue<List<Mutation>> mutations;
+  private final List<Thread> workers = new ArrayList<>();
+  private Thread writer;
+
+  private final StageStats parseStats = new StageStats("parse");
+  private final StageStats renderStats = new StageStats("render");
+  private final StageStats writeStats = new StageStats("write");
+  private long startTime;
+  private long elapsed;
+
+  // first failure of any stage; once set, the parser stops and the other
+  // stages drop their input instead of processing it
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  /**
+   * Per stage counters. Wait time is time a stage spent blocked on a full
+   * output queue, i.e. how much back-pressure the next stage applied.
+   */
+  private static class StageStats {
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    StageStats(String name) {
+      this.name = name;
+    }
+
+    void print(PrintStream out, long elapsedNanos) {
+      double seconds = elapsedNanos / 1e9;
+      out.println(String.format("%-8s %10d items %10.1f items/sec  busy %8.1fs  blocked %8.1fs  errors %d",
+              name,
+              count.get(),
+              seconds > 0 ? count.get() / seconds : 0.0,
+              busyNanos.get() / 1e9,
+              waitNanos.get() / 1e9,
+              errors.get()));
+    }
+  }
+
+  /**
+   *
+   * @param batchWriter writer receiving the article mutations
+   * @param numWorkers number of render threads
+   * @param queueSize capacity of each hand-off queue
+   */
+  public WikipediaIngestPipeline(
+          final BatchWriter batchWriter,
+          final int numWorkers,
+          final int queueSize) {
+    this(batchWriter, numWorkers, queueSize, null);
+  }
+
+  /**
+   *
+   * @param batchWriter writer receiving the article mutations
+   * @param numWorkers number of render threads
+   * @param queueSize capacity of each hand-off queue
+   * @param codec compresses article contents on the render threads, or null
+   */
+  public WikipediaIngestPipeline(
+          final BatchWriter batchWriter,
+          final int numWorkers,
+          final int queueSize,
+          final ContentsCodec codec) {
+
+    if (numWorkers < 1)
+      throw new IllegalArgumentException("need at least one worker");
+
+    if (queueSize < 1)
+      throw new IllegalArgumentException("queue size must be positive");
+
+    this.batchWriter = batchWriter;
+    this.codec = codec;
+    this.numWorkers = numWorkers;
+    this.articles = new ArrayBlockingQueue<>(queueSize);
+    this.mutations = new ArrayBlockingQueue<>(queueSize);
+  }
+
+  /**
+   * Start the render and writer threads
+   */
+  public void start() {
+
+    startTime = System.nanoTime();
+
+    for (int i = 0; i < numWorkers; i++) {
+      Thread t = new Thread(new RenderWorker(), "wiki-render-" + i);
+      t.setDaemon(true);
+      t.start();
+      workers.add(t);
+    }
+
+    writer = new Thread(new MutationWriter(), "wiki-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Signal that parsing is complete and wait for all queued articles to be
+   * handed to the BatchWriter. Does not flush the BatchWriter.
+   *
+   * @throws InterruptedException
+   * @throws IOException if a stage failed, in which case some articles
+   * were not written
+   */
+  public void finish() throws InterruptedException, IOException {
+
+    for (int i = 0; i < numWorkers; i++)
+      articles.put(END_OF_ARTICLES);
+
+    for (Thread t : workers)
+      t.join();
+
+    mutations.put(END_OF_MUTATIONS);
+    writer.join();
+
+    elapsed = System.nanoTime() - startTime;
+
+    Throwable t = failure.get();
+    if (t != null)
+      throw new IOException("ingest pipeline failed, not all articles were written", t);
+  }
+
+  private void fail(final Throwable t) {
+    if (failure.compareAndSet(null, t))
+      logger.error("ingest pipeline failed, dropping remaining articles", t);
+  }
+
+  private boolean failed() {
+    return failure.get() != null;
+  }
+
+  /**
+   * Print per stage throughput
+   *
+   * @param out
+   */
+  public void printReport(PrintStream out) {
+
+    long elapsedNanos = elapsed > 0 ? elapsed : System.nanoTime() - startTime;
+
+    out.println(String.format("ingest pipeline: %d render threads, %.1fs elapsed",
+            numWorkers, elapsedNanos / 1e9));
+    parseStats.print(out, elapsedNanos);
+    renderStats.print(out, elapsedNanos);
+    writeStats.print(out, elapsedNanos);
+  }
+
+  @Override
+  public void process(WikiArticle article, Siteinfo info) throws SAXException {
+
+    if (failed())
+      throw new SAXException("ingest pipeline failed", new IOException(failure.get()));
+
+    long start = System.nanoTime();
+    try {
+      articles.put(article);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SAXException(ex);
+    }
+
+    parseStats.waitNanos.addAndGet(System.nanoTime() - start);
+    parseStats.count.incrementAndGet();
+  }
+
+  private class RenderWorker implements Runnable {
+
+    // WikiModel keeps state while rendering so each worker needs its own
+    private final WikiModel model = new WikiModel("", "");
+    private final PlainTextConverter converter = new PlainTextConverter(true);
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          WikiArticle article = articles.take();
+          if (article == END_OF_ARTICLES)
+            return;
+
+          // keep draining so the parser never blocks on a full queue
+          if (failed())
+            continue;
+
+          long start = System.nanoTime();
+          List<Mutation> articleMutations;
+          try {
+            // pages are assumed new, as in WikipediaClient's other full ingests
+            articleMutations = WikipediaClient.toMutations(article, WikipediaClient.render(model, converter, article.getText()), codec, 0);
+          } catch (RuntimeException | StackOverflowError ex) {
+            // bliki can overflow the stack on deeply nested markup, skip just that article
+            renderStats.errors.incrementAndGet();
+            logger.error("failed to render " + article.getTitle(), ex);
+            continue;
+          } catch (Throwable t) {
+            renderStats.errors.incrementAndGet();
+            fail(t);
+            continue;
+          } finally {
+            renderStats.busyNanos.addAndGet(System.nanoTime() - start);
+          }
+
+          start = System.nanoTime();
+          mutations.put(articleMutations);
+          renderStats.waitNanos.addAndGet(System.nanoTime() - start);
+          renderStats.count.incrementAndGet();
+        }
+      } catch (InterruptedException ex) {
+        fail(ex);
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private class MutationWriter implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          List<Mutation> articleMutations = mutations.take();
+          if (articleMutations == END_OF_MUTATIONS)
+            return;
+
+          // a BatchWriter that rejected mutations rejects everything after,
+          // so stop writing and just drain the queue
+          if (failed())
+            continue;
+
+          long start = System.nanoTime();
+          try {
+            // blocks when the BatchWriter's buffer is full
+            batchWriter.addMutations(articleMutations);
+            writeStats.count.incrementAndGet();
+          } catch (Throwable t) {
+            writeStats.errors.incrementAndGet();
+            fail(t);
+          } finally {
+            writeStats.busyNanos.addAndGet(System.nanoTime() - start);
+          }
+        }
+      } catch (InterruptedException ex) {
+        fail(ex);
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -17,6 +17,8 @@
 package com.accumulobook.basic;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -55,6 +57,12 @@ public class WikipediaLookupExample {
     
     System.out.println("\nPrinting out one column:\n--------------");
     client.scanColumn(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.REVISION_QUAL);
+
+    System.out.println("\nFetching metadata of several articles at once:\n--------------");
+    Map<String, Article> articles = client.getArticles(
+            Arrays.asList(WikipediaConstants.HADOOP_PAGES), WikipediaConstants.METADATA_FAMILY);
+    for (Map.Entry<String, Article> article : articles.entrySet())
+      System.out.println(article.getKey() + "\t" + article.getValue().getFields());
 	
 	System.exit(0);
   }
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+/**
+ * Value of an "ind" posting in the document partitioned table: the number
+ * of times the term occurs in the document, the document length in tokens,
+ * then the token position of each occurrence as the difference from the
+ * previous one, all as unsigned varints.
+ *
+ * Postings written before counts were recorded have empty values; they
+ * decode as a single occurrence in a document of unknown (0) length.
+ * Postings written before positions were recorded end after the length;
+ * they have no positions.
+ */
+public class PostingValue {
+
+  private PostingValue() {
+  }
+
+  public static byte[] encode(final int count, final int length) {
+    if (count < 0 || length < 0)
+      throw new IllegalArgumentException("negative count or length");
+
+    byte[] b = new byte[varintLength(count) + varintLength(length)];
+    int i = writeVarint(b, 0, count);
+    writeVarint(b, i, length);
+    return b;
+  }
+
+  /**
+   * @param length document length in tokens
+   * @param positions ascending token positions of the term
+   * @param count number of positions used from the array
+   * @return encoded value
+   */
+  public static byte[] encode(final int length, final int[] positions, final int count) {
+    if (length < 0)
+      throw new IllegalArgumentException("negative length");
+
+    int size = varintLength(count) + varintLength(length);
+    int previous = 0;
+    for (int p = 0; p < count; p++) {
+      if (positions[p] < previous)
+        throw new IllegalArgumentException("positions must be ascending");
+
+      size += varintLength(positions[p] - previous);
+      previous = positions[p];
+    }
+
+    byte[] b = new byte[size];
+    int i = writeVarint(b, 0, count);
+    i = writeVarint(b, i, length);
+
+    previous = 0;
+    for (int p = 0; p < count; p++) {
+      i = writeVarint(b, i, positions[p] - previous);
+      previous = positions[p];
+    }
+
+    return b;
+  }
+
+  /**
+   * @param b encoded value
+   * @return occurrences of the term in the document
+   */
+  public static int count(final byte[] b) {
+    if (b.length == 0)
+      return 1;
+
+    return (int) readVarint(b, 0);
+  }
+
+  /**
+   * @param b encoded value
+   * @return document length in tokens, 0 if unknown
+   */
+  public static int length(final byte[] b) {
+    if (b.length == 0)
+      return 0;
+
+    return (int) readVarint(b, skipVarint(b, 0));
+  }
+
+  /**
+   * @param b encoded value
+   * @return ascending token positions of the term, or null if the posting
+   * was written without them
+   */
+  public static int[] positions(final byte[] b) {
+    if (b.length == 0)
+      return null;
+
+    int count = (int) readVarint(b, 0);
+    int i = skipVarint(b, skipVarint(b, 0));
+    if (i >= b.length)
+      return count == 0 ? new int[0] : null;
+
+    int[] positions = new int[count];
+    int position = 0;
+    for (int p = 0; p < count; p++) {
+      position += (int) readVarint(b, i);
+      positions[p] = position;
+      i = skipVarint(b, i);
+    }
+
+    return positions;
+  }
+
+  static int varintLength(long v) {
+    int len = 1;
+    while ((v & ~0x7FL) != 0) {
+      len++;
+      v >>>= 7;
+    }
+    return len;
+  }
+
+  /**
+   * @return offset just past the written varint
+   */
+  static int writeVarint(final byte[] b, int i, long v) {
+    while ((v & ~0x7FL) != 0) {
+      b[i++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    b[i++] = (byte) v;
+    return i;
+  }
+
+  static long readVarint(final byte[] b, int i) {
+    long v = 0;
+    for (int shift = 0; ; shift += 7) {
+      if (i >= b.length || shift > 63)
+        throw new IllegalArgumentException("truncated posting value");
+
+      byte next = b[i++];
+      v |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0)
+        return v;
+    }
+  }
+
+  /**
+   * @return offset just past the varint starting at i
+   */
+  static int skipVarint(final byte[] b, int i) {
+    while (i < b.length && (b[i] & 0x80) != 0)
+      i++;
+    return i + 1;
+  }
+}
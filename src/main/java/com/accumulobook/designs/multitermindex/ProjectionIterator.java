@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+import com.accumulobook.TextTokenizer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Finds the documents in each shard containing all of the query terms and
+ * returns only as much of each as the caller asked for: the ID alone, the
+ * ID and the document's metadata entry, the ID and a snippet of text
+ * around the first occurrence of a query term with the terms highlighted,
+ * or the full text.
+ *
+ * Returns one entry per matching document, as each is found
+ *
+ * row: shardID, colfam: result, colqual: doctype\0docID, value: projection
+ */
+public class ProjectionIterator extends StreamingShardIterator {
+
+  public enum Projection {
+    IDS, METADATA, SNIPPET, FULL_TEXT
+  }
+
+  public static final String RESULT_FAMILY = "result";
+  public static final int DEFAULT_SNIPPET_LENGTH = 200;
+
+  public static final String HIGHLIGHT_START = "<em>";
+  public static final String HIGHLIGHT_END = "</em>";
+
+  private static final String PROJECTION_OPTION = "projection";
+  private static final String SNIPPET_LENGTH_OPTION = "snippetLength";
+
+  private static final Value EMPTY_VALUE = new Value(new byte[0]);
+
+  private Projection projection;
+  private int snippetLength;
+  private Set<String> queryTerms;
+  private SortedKeyValueIterator<Key, Value> docSource;
+  private final TextTokenizer tokenizer = TextTokenizer.forPartitionedIndex();
+
+  public ProjectionIterator() {
+    super(RESULT_FAMILY);
+  }
+
+  public static void setProjection(IteratorSetting is, Projection projection) {
+    is.addOption(PROJECTION_OPTION, projection.name());
+  }
+
+  /**
+   * @param is
+   * @param length approximate number of chars of text in each snippet
+   */
+  public static void setSnippetLength(IteratorSetting is, int length) {
+    if (length < 1)
+      throw new IllegalArgumentException("snippet length must be positive");
+
+    is.addOption(SNIPPET_LENGTH_OPTION, Integer.toString(length));
+  }
+
+  @Override
+  public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+
+    super.init(source, options, env);
+
+    projection = options.containsKey(PROJECTION_OPTION) ? Projection.valueOf(options.get(PROJECTION_OPTION)) : Projection.IDS;
+    snippetLength = options.containsKey(SNIPPET_LENGTH_OPTION)
+            ? Integer.parseInt(options.get(SNIPPET_LENGTH_OPTION)) : DEFAULT_SNIPPET_LENGTH;
+
+    queryTerms = new HashSet<>();
+    for (int i = 0; i < numTerms(); i++)
+      queryTerms.add(term(i));
+
+    docSource = source.deepCopy(env);
+  }
+
+  @Override
+  protected Value match(Text row, byte[] doc) throws IOException {
+
+    Value value;
+    switch (projection) {
+      case METADATA:
+        value = read(row, "meta", doc);
+        break;
+      case SNIPPET:
+        value = snippet(row, doc);
+        break;
+      case FULL_TEXT:
+        value = read(row, "doc", doc);
+        break;
+      default:
+        value = EMPTY_VALUE;
+    }
+
+    return value == null ? EMPTY_VALUE : value;
+  }
+
+  /**
+   * Read the entry for a document in family\0doctype
+   *
+   * @return the value, or null if the document has no such entry
+   */
+  private Value read(Text row, String family, byte[] doc) throws IOException {
+
+    int sep = 0;
+    while (doc[sep] != 0)
+      sep++;
+
+    byte[] cf = new byte[family.length() + 1 + sep];
+    System.arraycopy(family.getBytes(StandardCharsets.UTF_8), 0, cf, 0, family.length());
+    System.arraycopy(doc, 0, cf, family.length() + 1, sep);
+
+    byte[] docID = new byte[doc.length - sep - 1];
+    System.arraycopy(doc, sep + 1, docID, 0, docID.length);
+
+    Text cfText = new Text(cf);
+    docSource.seek(Range.exact(row, cfText, new Text(docID)),
+            Collections.<ByteSequence>singleton(new ArrayByteSequence(cf)), true);
+
+    return docSource.hasTop() ? new Value(docSource.getTopValue()) : null;
+  }
+
+  private Value snippet(Text row, byte[] doc) throws IOException {
+
+    // the first occurrence of any query term, or the start of the document
+    int first = Integer.MAX_VALUE;
+    for (int i = 0; i < numTerms(); i++) {
+      int[] positions = PostingValue.positions(postingValue(i));
+      if (positions != null && positions.length > 0)
+        first = Math.min(first, positions[0]);
+    }
+
+    Value docValue = read(row, "doc", doc);
+    if (docValue == null)
+      return null;
+
+    String text = new String(docValue.get(), StandardCharsets.UTF_8);
+
+    int offset = 0;
+    tokenizer.reset(text);
+    while (first != Integer.MAX_VALUE && tokenizer.next()) {
+      if (tokenizer.position() >= first) {
+        offset = tokenizer.start();
+        break;
+      }
+    }
+
+    // some context before the match, ending on word boundaries
+    int from = Math.max(0, offset - snippetLength / 4);
+    int to = Math.min(text.length(), from + snippetLength);
+    while (from > 0 && from < offset && !Character.isWhitespace(text.charAt(from - 1)))
+      from++;
+    while (to < text.length() && to > offset && !Character.isWhitespace(text.charAt(to)))
+      to--;
+
+    StringBuilder snippet = new StringBuilder();
+    if (from > 0)
+      snippet.append("...");
+
+    String window = text.substring(from, to);
+    int copied = 0;
+    tokenizer.reset(window);
+    while (tokenizer.next()) {
+      if (queryTerms.contains(tokenizer.token())) {
+        snippet.append(window, copied, tokenizer.start())
+                .append(HIGHLIGHT_START)
+                .append(window, tokenizer.start(), tokenizer.end())
+                .append(HIGHLIGHT_END);
+        copied = tokenizer.end();
+      }
+    }
+    snippet.append(window, copied, window.length());
+
+    if (to < text.length())
+      snippet.append("...");
+
+    return new Value(snippet.toString().replaceAll("\\s+", " ").getBytes(StandardCharsets.UTF_8));
+  }
+}
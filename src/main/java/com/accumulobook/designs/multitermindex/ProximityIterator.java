@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Finds the documents in each shard where the query terms occur as an
+ * exact phrase, or all within a few words of each other, using the token positions
+ * stored in PostingValues. Documents whose postings have no positions
+ * never match.
+ *
+ * Returns one entry per matching document, as each is found
+ *
+ * row: shardID, colfam: match, colqual: doctype\0docID, value: position of the first match
+ */
+public class ProximityIterator extends StreamingShardIterator {
+
+  public static final String MATCH_FAMILY = "match";
+
+  private static final String WINDOW_OPTION = "window";
+
+  // a window of 0 means the terms must appear in order, one after another
+  private int window;
+
+  public ProximityIterator() {
+    super(MATCH_FAMILY);
+  }
+
+  /**
+   * Match the terms as a phrase, in order and adjacent
+   */
+  public static void setPhrase(IteratorSetting is, String... terms) {
+    setTerms(is, terms);
+    is.addOption(WINDOW_OPTION, "0");
+  }
+
+  /**
+   * Match the terms in any order, with the first and last of them at
+   * most window words apart
+   */
+  public static void setWithin(IteratorSetting is, int window, String... terms) {
+    if (window < 1)
+      throw new IllegalArgumentException("window must be positive");
+
+    setTerms(is, terms);
+    is.addOption(WINDOW_OPTION, Integer.toString(window));
+  }
+
+  @Override
+  public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+    super.init(source, options, env);
+    window = options.containsKey(WINDOW_OPTION) ? Integer.parseInt(options.get(WINDOW_OPTION)) : 0;
+  }
+
+  @Override
+  protected Value match(Text row, byte[] doc) throws IOException {
+
+    int[][] positions = new int[numTerms()][];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = PostingValue.positions(postingValue(i));
+      if (positions[i] == null)
+        return null;
+    }
+
+    int first = window == 0 ? phrase(positions) : within(positions, window);
+    if (first < 0)
+      return null;
+
+    return new Value(Integer.toString(first).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return position of the first occurrence of term 0 followed directly by
+   * terms 1, 2, ..., or -1
+   */
+  static int phrase(int[][] positions) {
+
+    for (int start : positions[0]) {
+      boolean found = true;
+      for (int i = 1; i < positions.length && found; i++)
+        found = Arrays.binarySearch(positions[i], start + i) >= 0;
+
+      if (found)
+        return start;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Slide over the merged positions of all terms, always advancing the
+   * term that is furthest behind
+   *
+   * @return start of the first span containing every term whose ends are
+   * at most window words apart, or -1
+   */
+  static int within(int[][] positions, int window) {
+
+    int[] next = new int[positions.length];
+
+    while (true) {
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      int lagging = -1;
+
+      for (int i = 0; i < positions.length; i++) {
+        if (next[i] >= positions[i].length)
+          return -1;
+
+        int p = positions[i][next[i]];
+        if (p < min) {
+          min = p;
+          lagging = i;
+        }
+        max = Math.max(max, p);
+      }
+
+      if (max - min <= window)
+        return min;
+
+      next[lagging]++;
+    }
+  }
+}
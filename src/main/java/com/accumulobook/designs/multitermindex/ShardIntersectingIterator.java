@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Base for iterators that evaluate a query one shard at a time over the
+ * documents containing all of the query terms.
+ *
+ * Reads "ind" postings of the form term\0doctype\0docID\0info. For each
+ * shard row in the seek range, the postings of all terms are merge
+ * intersected and nextMatch() steps through the documents containing
+ * every term. StreamingShardIterator returns each match as it is found;
+ * WholeShardIterator evaluates a whole shard before returning any of it.
+ */
+public abstract class ShardIntersectingIterator implements SortedKeyValueIterator<Key, Value> {
+
+  private static final String TERMS_OPTION = "terms";
+
+  private static final Text INDEX_FAMILY = new Text("ind");
+  private static final Collection<ByteSequence> INDEX_FAMILIES =
+          Collections.<ByteSequence>singleton(new ArrayByteSequence("ind"));
+  private static final Collection<ByteSequence> NO_FAMILIES = Collections.emptyList();
+
+  private SortedKeyValueIterator<Key, Value> source;
+  private Map<String, String> options;
+  private TermSource[] terms;
+  private String[] termStrings;
+  private boolean started;
+
+  private Range range;
+  private boolean moreRows;
+  private final List<Map.Entry<Key, Value>> results = new ArrayList<>();
+  private int resultIndex;
+
+  /**
+   * Postings of one query term within the current shard
+   */
+  private static class TermSource {
+
+    private final SortedKeyValueIterator<Key, Value> iter;
+    private final byte[] prefix;
+    private final byte[] prefixEnd;
+    private Text row;
+
+    TermSource(SortedKeyValueIterator<Key, Value> iter, byte[] term) {
+      this.iter = iter;
+      this.prefix = new byte[term.length + 1];
+      System.arraycopy(term, 0, prefix, 0, term.length);
+      this.prefixEnd = prefix.clone();
+      this.prefixEnd[term.length] = 1;
+    }
+
+    // the first posting in row for doc or a later one, any doc if empty
+    void seek(Text row, byte[] doc) throws IOException {
+      this.row = row;
+      seekTo(doc);
+    }
+
+    // skip ahead to the first posting for doc or a later one
+    void seekTo(byte[] doc) throws IOException {
+      byte[] cq = new byte[prefix.length + doc.length];
+      System.arraycopy(prefix, 0, cq, 0, prefix.length);
+      System.arraycopy(doc, 0, cq, prefix.length, doc.length);
+
+      iter.seek(new Range(
+              new Key(row, INDEX_FAMILY, new Text(cq)), true,
+              new Key(row, INDEX_FAMILY, new Text(prefixEnd)), false), INDEX_FAMILIES, true);
+    }
+
+    /**
+     * @return doctype\0docID of the current posting
+     */
+    byte[] doc() {
+      Text cq = iter.getTopKey().getColumnQualifier();
+      byte[] bytes = cq.getBytes();
+      int end = cq.getLength() - 1;
+      while (end > prefix.length && bytes[end] != 0)
+        end--;
+
+      byte[] doc = new byte[end - prefix.length];
+      System.arraycopy(bytes, prefix.length, doc, 0, doc.length);
+      return doc;
+    }
+  }
+
+  /**
+   * Set the query terms, in query order
+   *
+   * @param is
+   * @param terms
+   */
+  public static void setTerms(IteratorSetting is, String... terms) {
+    if (terms.length == 0)
+      throw new IllegalArgumentException("need at least one term");
+
+    StringBuilder encoded = new StringBuilder();
+    for (int i = 0; i < terms.length; i++) {
+      if (i > 0)
+        encoded.append('\n');
+      encoded.append(new String(Base64.encodeBase64(terms[i].getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    }
+
+    is.addOption(TERMS_OPTION, encoded.toString());
+  }
+
+  @Override
+  public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+
+    this.source = source;
+    this.options = new HashMap<>(options);
+
+    String[] encoded = options.get(TERMS_OPTION).split("\n");
+    terms = new TermSource[encoded.length];
+    termStrings = new String[encoded.length];
+    for (int i = 0; i < terms.length; i++) {
+      byte[] term = Base64.decodeBase64(encoded[i].getBytes(StandardCharsets.UTF_8));
+      terms[i] = new TermSource(source.deepCopy(env), term);
+      termStrings[i] = new String(term, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * @return number of query terms
+   */
+  protected int numTerms() {
+    return terms.length;
+  }
+
+  /**
+   * @param i
+   * @return query term i
+   */
+  protected String term(int i) {
+    return termStrings[i];
+  }
+
+  /**
+   * Add the next results within the seek range, in key order
+   *
+   * @param results empty list to fill; left empty only when no shards remain
+   */
+  protected abstract void findResults(List<Map.Entry<Key, Value>> results) throws IOException;
+
+  /**
+   * Advance to the next document in the shard that contains every term
+   *
+   * @return doctype\0docID of the document, or null when there are no more
+   */
+  protected byte[] nextMatch() throws IOException {
+
+    if (started) {
+      for (TermSource term : terms)
+        term.iter.next();
+    }
+    started = true;
+
+    while (true) {
+
+      // the furthest document any term has reached is the next candidate
+      byte[] candidate = null;
+      for (TermSource term : terms) {
+        if (!term.iter.hasTop())
+          return null;
+
+        byte[] doc = term.doc();
+        if (candidate == null || compareBytes(doc, candidate) > 0)
+          candidate = doc;
+      }
+
+      boolean aligned = true;
+      for (TermSource term : terms) {
+        if (compareBytes(term.doc(), candidate) < 0) {
+          term.seekTo(candidate);
+          aligned = false;
+        }
+      }
+
+      if (aligned)
+        return candidate;
+    }
+  }
+
+  /**
+   * @param i query term
+   * @return posting value of term i for the current match
+   */
+  protected byte[] postingValue(int i) {
+    return terms[i].iter.getTopValue().get();
+  }
+
+  protected static int compareBytes(byte[] a, byte[] b) {
+    return WritableComparator.compareBytes(a, 0, a.length, b, 0, b.length);
+  }
+
+  @Override
+  public boolean hasTop() {
+    return resultIndex < results.size();
+  }
+
+  @Override
+  public void next() throws IOException {
+    resultIndex++;
+    if (resultIndex >= results.size())
+      advance();
+  }
+
+  @Override
+  public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+
+    this.range = range;
+
+    // shards are found from the start of the row, subclasses position the
+    // terms within it
+    Key startKey = range.getStartKey();
+    source.seek(new Range(startKey == null ? null : new Key(startKey.getRow()), true,
+            range.getEndKey(), range.isEndKeyInclusive()), NO_FAMILIES, false);
+    moreRows = true;
+
+    advance();
+  }
+
+  private void advance() throws IOException {
+    results.clear();
+    resultIndex = 0;
+    findResults(results);
+  }
+
+  /**
+   * @return range of the last seek
+   */
+  protected Range getRange() {
+    return range;
+  }
+
+  /**
+   * @return the next shard within the range, or null when there are no more
+   */
+  protected Text currentShard() {
+
+    if (!moreRows || !source.hasTop())
+      return null;
+
+    Text row = source.getTopKey().getRow();
+    if (range.afterEndKey(new Key(row))) {
+      moreRows = false;
+      return null;
+    }
+
+    return row;
+  }
+
+  /**
+   * Position every term at its first posting in row for doc or a later one
+   *
+   * @param row shard
+   * @param doc doctype\0docID, or empty for the start of the shard
+   */
+  protected void seekTerms(Text row, byte[] doc) throws IOException {
+    for (TermSource term : terms)
+      term.seek(row, doc);
+    started = false;
+  }
+
+  /**
+   * Move on from row to the next shard within the range
+   */
+  protected void nextShard(Text row) throws IOException {
+    Key nextRow = new Key(row).followingKey(PartialKey.ROW);
+    if (range.afterEndKey(nextRow)) {
+      moreRows = false;
+    } else {
+      source.seek(new Range(nextRow, true, range.getEndKey(), range.isEndKeyInclusive()), NO_FAMILIES, false);
+    }
+  }
+
+  /**
+   * Stop looking for shards, the range has been passed
+   */
+  protected void endOfRange() {
+    moreRows = false;
+  }
+
+  @Override
+  public Key getTopKey() {
+    return results.get(resultIndex).getKey();
+  }
+
+  @Override
+  public Value getTopValue() {
+    return results.get(resultIndex).getValue();
+  }
+
+  @Override
+  public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+    try {
+      ShardIntersectingIterator copy = getClass().newInstance();
+      copy.init(source.deepCopy(env), options, env);
+      return copy;
+    } catch (IOException | InstantiationException | IllegalAccessException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+import com.accumulobook.WikipediaSplitPlanner;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map.Entry;
+import java.util.TimeZone;
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Maps documents to shard rows of the document partitioned table.
+ *
+ * The number of shards is stored with the table as a custom table property
+ * so that every ingester and the re-sharding job agree on it. Documents
+ * are assigned with a consistent hash of their ID: growing from n to m
+ * shards only moves about (m - n) / m of the documents, all of them into
+ * the new shards.
+ *
+ * Tables can also be bucketed by time, for ingest that mostly appends
+ * recent documents and queries that mostly ask about recent data. Shard
+ * rows are then yyyyMMdd_NN, the UTC day of the document followed by its
+ * shard number within the day, so a query for a time window only has to
+ * scan the rows of the days in the window.
+ */
+public class ShardScheme {
+
+  public static final String SHARDS_PROPERTY = Property.TABLE_ARBITRARY_PROP_PREFIX.getKey() + "wikipedia.shards";
+  public static final String BUCKET_PROPERTY = Property.TABLE_ARBITRARY_PROP_PREFIX.getKey() + "wikipedia.shards.bucket";
+  public static final String DAY_BUCKETS = "day";
+  public static final String NO_BUCKETS = "none";
+
+  // tables created before the shard count was recorded used 10 shards
+  public static final int DEFAULT_SHARDS = 10;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  private static final char BUCKET_SEPARATOR = '_';
+
+  private final int numShards;
+  private final boolean timeBucketed;
+  private final String shardFormat;
+
+  public ShardScheme(final int numShards) {
+    this(numShards, false);
+  }
+
+  /**
+   *
+   * @param numShards shards per table, or per day when time bucketed
+   * @param timeBucketed put the day in front of the shard number
+   */
+  public ShardScheme(final int numShards, final boolean timeBucketed) {
+    if (numShards < 1)
+      throw new IllegalArgumentException("need at least one shard");
+
+    this.numShards = numShards;
+    this.timeBucketed = timeBucketed;
+
+    // fixed width so the shards of a day sort in numeric order
+    int width = Math.max(2, Integer.toString(numShards - 1).length());
+    this.shardFormat = "%0" + width + "d";
+  }
+
+  /**
+   * Read the shard count recorded for a table
+   *
+   * @param conn
+   * @param table
+   * @return scheme for the table
+   * @throws AccumuloException
+   * @throws TableNotFoundException
+   */
+  public static ShardScheme forTable(final Connector conn, final String table) throws
+          AccumuloException,
+          TableNotFoundException {
+
+    int numShards = DEFAULT_SHARDS;
+    boolean timeBucketed = false;
+
+    for (Entry<String, String> e : conn.tableOperations().getProperties(table)) {
+      if (e.getKey().equals(SHARDS_PROPERTY))
+        numShards = Integer.parseInt(e.getValue());
+      else if (e.getKey().equals(BUCKET_PROPERTY))
+        timeBucketed = e.getValue().equals(DAY_BUCKETS);
+    }
+
+    return new ShardScheme(numShards, timeBucketed);
+  }
+
+  /**
+   * Record whether a table's shard rows start with a day bucket. Only
+   * meant to be set when the table is created.
+   *
+   * @param conn
+   * @param table
+   * @param timeBucketed
+   * @throws AccumuloException
+   * @throws AccumuloSecurityException
+   */
+  public static void setTimeBucketed(final Connector conn, final String table, final boolean timeBucketed) throws
+          AccumuloException,
+          AccumuloSecurityException {
+
+    conn.tableOperations().setProperty(table, BUCKET_PROPERTY, timeBucketed ? DAY_BUCKETS : NO_BUCKETS);
+  }
+
+  /**
+   * Record the shard count for a table. Documents already in the table
+   * stay where they are until re-sharded.
+   *
+   * @param conn
+   * @param table
+   * @param numShards
+   * @throws AccumuloException
+   * @throws AccumuloSecurityException
+   */
+  public static void setNumShards(final Connector conn, final String table, final int numShards) throws
+          AccumuloException,
+          AccumuloSecurityException {
+
+    if (numShards < 1)
+      throw new IllegalArgumentException("need at least one shard");
+
+    conn.tableOperations().setProperty(table, SHARDS_PROPERTY, Integer.toString(numShards));
+  }
+
+  /**
+   * A shard count that gives every tablet server a few shards to work on
+   * in parallel
+   *
+   * @param conn
+   * @return number of shards for a new table
+   */
+  public static int forCluster(final Connector conn) {
+    int servers = conn.instanceOperations().getTabletServers().size();
+    return Math.max(DEFAULT_SHARDS, servers * WikipediaSplitPlanner.TABLETS_PER_SERVER);
+  }
+
+  public int getNumShards() {
+    return numShards;
+  }
+
+  public boolean isTimeBucketed() {
+    return timeBucketed;
+  }
+
+  /**
+   * @param docID
+   * @return shard row for the document in a table without time buckets,
+   * between 0 and numShards - 1
+   */
+  public String shard(final String docID) {
+    return Integer.toString(shardNumber(docID));
+  }
+
+  /**
+   * @param docID
+   * @param time when the document was written, used if time bucketed
+   * @return shard row for the document
+   */
+  public String shard(final String docID, final Date time) {
+    if (!timeBucketed)
+      return shard(docID);
+
+    return bucket(time) + BUCKET_SEPARATOR + String.format(shardFormat, shardNumber(docID));
+  }
+
+  /**
+   * Shard row for a document currently stored in row, keeping the row's
+   * time bucket since the table does not record document times
+   *
+   * @param row
+   * @param docID
+   * @return new shard row
+   */
+  public String reshard(final String row, final String docID) {
+    int sep = row.indexOf(BUCKET_SEPARATOR);
+    if (!timeBucketed || sep < 0)
+      return shard(docID);
+
+    return row.substring(0, sep + 1) + String.format(shardFormat, shardNumber(docID));
+  }
+
+  /**
+   * Ranges covering the shards holding documents written between start
+   * and stop, inclusive, at the granularity of days
+   *
+   * @param start null for no lower bound
+   * @param stop null for no upper bound
+   * @return ranges to scan
+   */
+  public Collection<Range> ranges(final Date start, final Date stop) {
+
+    if (start == null && stop == null)
+      return Collections.singleton(new Range());
+
+    if (!timeBucketed)
+      throw new IllegalArgumentException("table is not bucketed by time, can't restrict to a time window");
+
+    // days sort before the shard number, so a window of days is one contiguous range
+    Text startRow = start == null ? null : new Text(bucket(start));
+    Text endRow = stop == null ? null : Range.followingPrefix(new Text(bucket(stop)));
+
+    return Collections.singleton(new Range(startRow, true, endRow, false));
+  }
+
+  private int shardNumber(final String docID) {
+    return Hashing.consistentHash(HASH.hashString(docID, StandardCharsets.UTF_8), numShards);
+  }
+
+  private static String bucket(final Date time) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+    format.setTimeZone(UTC);
+    return format.format(time);
+  }
+}
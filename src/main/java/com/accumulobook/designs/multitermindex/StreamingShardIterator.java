@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Returns an entry for each document containing every term as soon as it
+ * is found, without evaluating the rest of the shard first.
+ *
+ * Entries are keyed row: shardID, colfam: the result family, colqual:
+ * doctype\0docID. A scan resumed part way through a shard seeks the terms
+ * straight to the document it stopped at.
+ */
+public abstract class StreamingShardIterator extends ShardIntersectingIterator {
+
+  private final Text resultFamily;
+
+  // shard being streamed, or null between shards
+  private Text streamRow;
+
+  /**
+   * @param resultFamily column family of the entries returned
+   */
+  protected StreamingShardIterator(String resultFamily) {
+    this.resultFamily = new Text(resultFamily);
+  }
+
+  /**
+   * Value for a document containing every term
+   *
+   * @param row shard
+   * @param doc doctype\0docID
+   * @return the value to return for doc, or null to leave it out
+   */
+  protected abstract Value match(Text row, byte[] doc) throws IOException;
+
+  @Override
+  public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+    streamRow = null;
+    super.seek(range, columnFamilies, inclusive);
+  }
+
+  /**
+   * Stream matches until one is within the range and has a value, or
+   * there are no more shards
+   */
+  @Override
+  protected void findResults(List<Map.Entry<Key, Value>> results) throws IOException {
+
+    Range range = getRange();
+
+    while (true) {
+      if (streamRow == null) {
+        Text row = currentShard();
+        if (row == null)
+          return;
+
+        if (!openRow(row)) {
+          nextShard(row);
+          continue;
+        }
+        streamRow = row;
+      }
+
+      byte[] doc = nextMatch();
+      if (doc == null) {
+        nextShard(streamRow);
+        streamRow = null;
+        continue;
+      }
+
+      Key key = new Key(streamRow, resultFamily, new Text(doc));
+      if (range.beforeStartKey(key))
+        continue;
+
+      if (range.afterEndKey(key)) {
+        endOfRange();
+        streamRow = null;
+        return;
+      }
+
+      Value value = match(streamRow, doc);
+      if (value != null) {
+        results.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+        return;
+      }
+    }
+  }
+
+  /**
+   * Position the terms at the first document of row the range can include:
+   * the start key's document when the range starts within row's results
+   *
+   * @return false if the range starts after all of row's results
+   */
+  private boolean openRow(Text row) throws IOException {
+
+    byte[] startDoc = new byte[0];
+
+    Key startKey = getRange().getStartKey();
+    if (startKey != null && startKey.getRow().equals(row)) {
+      int cmp = startKey.getColumnFamily().compareTo(resultFamily);
+      if (cmp > 0)
+        return false;
+
+      if (cmp == 0) {
+        Text cq = startKey.getColumnQualifier();
+        startDoc = Arrays.copyOf(cq.getBytes(), cq.getLength());
+      }
+    }
+
+    seekTerms(row, startDoc);
+    return true;
+  }
+}
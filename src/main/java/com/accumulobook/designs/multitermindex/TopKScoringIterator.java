@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Finds the documents in each shard containing all of the query terms,
+ * scores them with BM25 and returns only the best k per shard.
+ *
+ * Posting values are PostingValues. Term IDFs and the average document
+ * length are computed by the client from collection wide statistics and
+ * passed in as options, so every shard scores on the same scale and the
+ * client can merge the per shard results by score.
+ *
+ * Returns, per shard row, up to k entries of
+ *
+ * row: shardID, colfam: topk, colqual: doctype\0docID, value: score
+ *
+ * sorted by colqual as iterators must, not by score.
+ */
+public class TopKScoringIterator extends WholeShardIterator {
+
+  public static final String TOPK_FAMILY = "topk";
+
+  public static final double DEFAULT_K1 = 1.2;
+  public static final double DEFAULT_B = 0.75;
+
+  private static final String IDFS_OPTION = "idfs";
+  private static final String K_OPTION = "k";
+  private static final String AVGDL_OPTION = "avgdl";
+  private static final String K1_OPTION = "k1";
+  private static final String B_OPTION = "b";
+
+  private static final Text TOPK_FAMILY_TEXT = new Text(TOPK_FAMILY);
+
+  private double[] idfs;
+  private int k;
+  private double avgdl;
+  private double k1;
+  private double b;
+
+  private static class ScoredDoc {
+
+    final byte[] doc;
+    final double score;
+
+    ScoredDoc(byte[] doc, double score) {
+      this.doc = doc;
+      this.score = score;
+    }
+  }
+
+  private static final Comparator<ScoredDoc> BY_SCORE = new Comparator<ScoredDoc>() {
+    @Override
+    public int compare(ScoredDoc a, ScoredDoc b) {
+      return Double.compare(a.score, b.score);
+    }
+  };
+
+  private static final Comparator<ScoredDoc> BY_DOC = new Comparator<ScoredDoc>() {
+    @Override
+    public int compare(ScoredDoc a, ScoredDoc b) {
+      return compareBytes(a.doc, b.doc);
+    }
+  };
+
+  /**
+   * Set the query terms and the weight of each
+   *
+   * @param is
+   * @param terms
+   * @param idfs inverse document frequency of each term
+   */
+  public static void setTerms(IteratorSetting is, String[] terms, double[] idfs) {
+    if (terms.length != idfs.length)
+      throw new IllegalArgumentException("need one idf for each term");
+
+    setTerms(is, terms);
+
+    StringBuilder encoded = new StringBuilder();
+    for (int i = 0; i < idfs.length; i++) {
+      if (i > 0)
+        encoded.append(',');
+      encoded.append(idfs[i]);
+    }
+
+    is.addOption(IDFS_OPTION, encoded.toString());
+  }
+
+  /**
+   * @param is
+   * @param k number of results to keep per shard
+   */
+  public static void setK(IteratorSetting is, int k) {
+    if (k < 1)
+      throw new IllegalArgumentException("k must be positive");
+
+    is.addOption(K_OPTION, Integer.toString(k));
+  }
+
+  /**
+   * @param is
+   * @param avgdl average document length in tokens, 0 to disable length normalization
+   */
+  public static void setAverageDocumentLength(IteratorSetting is, double avgdl) {
+    is.addOption(AVGDL_OPTION, Double.toString(avgdl));
+  }
+
+  /**
+   * Override the BM25 term frequency saturation and length normalization
+   * parameters
+   */
+  public static void setParameters(IteratorSetting is, double k1, double b) {
+    is.addOption(K1_OPTION, Double.toString(k1));
+    is.addOption(B_OPTION, Double.toString(b));
+  }
+
+  @Override
+  public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+
+    super.init(source, options, env);
+
+    String[] encodedIdfs = options.get(IDFS_OPTION).split(",");
+    if (encodedIdfs.length != numTerms())
+      throw new IllegalArgumentException("need one idf for each term");
+
+    idfs = new double[encodedIdfs.length];
+    for (int i = 0; i < idfs.length; i++)
+      idfs[i] = Double.parseDouble(encodedIdfs[i]);
+
+    k = options.containsKey(K_OPTION) ? Integer.parseInt(options.get(K_OPTION)) : 10;
+    avgdl = options.containsKey(AVGDL_OPTION) ? Double.parseDouble(options.get(AVGDL_OPTION)) : 0;
+    k1 = options.containsKey(K1_OPTION) ? Double.parseDouble(options.get(K1_OPTION)) : DEFAULT_K1;
+    b = options.containsKey(B_OPTION) ? Double.parseDouble(options.get(B_OPTION)) : DEFAULT_B;
+  }
+
+  @Override
+  protected void matchRow(Text row, List<Map.Entry<Key, Value>> results) throws IOException {
+
+    PriorityQueue<ScoredDoc> best = new PriorityQueue<>(k, BY_SCORE);
+
+    for (byte[] doc = nextMatch(); doc != null; doc = nextMatch()) {
+
+      double score = 0;
+      for (int i = 0; i < idfs.length; i++) {
+        byte[] value = postingValue(i);
+        score += idfs[i] * termWeight(PostingValue.count(value), PostingValue.length(value));
+      }
+
+      if (best.size() < k) {
+        best.add(new ScoredDoc(doc, score));
+      } else if (score > best.peek().score) {
+        best.poll();
+        best.add(new ScoredDoc(doc, score));
+      }
+    }
+
+    List<ScoredDoc> sorted = new ArrayList<>(best);
+    Collections.sort(sorted, BY_DOC);
+
+    for (ScoredDoc scored : sorted) {
+      results.add(new AbstractMap.SimpleImmutableEntry<>(
+              new Key(row, TOPK_FAMILY_TEXT, new Text(scored.doc)),
+              new Value(Double.toString(scored.score).getBytes(StandardCharsets.UTF_8))));
+    }
+  }
+
+  private double termWeight(int tf, int length) {
+    double norm = avgdl > 0 && length > 0 ? 1 - b + b * length / avgdl : 1;
+    return tf * (k1 + 1) / (tf + k1 * norm);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Evaluates each shard completely before returning any of it, for results
+ * that depend on every match in the shard, such as the best k.
+ *
+ * What a shard returns is filtered to the seek range, so a scan resumed
+ * part way through a shard evaluates it again and skips what was already
+ * returned.
+ */
+public abstract class WholeShardIterator extends ShardIntersectingIterator {
+
+  /**
+   * Evaluate the query over one shard, calling nextMatch() to step through
+   * the documents containing every term
+   *
+   * @param row shard
+   * @param results entries to return for the shard, in key order
+   */
+  protected abstract void matchRow(Text row, List<Map.Entry<Key, Value>> results) throws IOException;
+
+  /**
+   * Evaluate shards until one has results within the range, or there are
+   * no more shards
+   */
+  @Override
+  protected void findResults(List<Map.Entry<Key, Value>> results) throws IOException {
+
+    Range range = getRange();
+    List<Map.Entry<Key, Value>> rowResults = new ArrayList<>();
+
+    while (results.isEmpty()) {
+      Text row = currentShard();
+      if (row == null)
+        return;
+
+      // results are computed together, so start at the beginning of the row
+      seekTerms(row, new byte[0]);
+
+      rowResults.clear();
+      matchRow(row, rowResults);
+
+      for (Map.Entry<Key, Value> entry : rowResults) {
+        if (!range.beforeStartKey(entry.getKey()) && !range.afterEndKey(entry.getKey()))
+          results.add(entry);
+      }
+
+      nextShard(row);
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.accumulobook.designs.multitermindex;
 
 import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.TextTokenizer;
 import info.bliki.wiki.dump.IArticleFilter;
 import info.bliki.wiki.dump.Siteinfo;
 import info.bliki.wiki.dump.WikiArticle;
@@ -24,7 +25,14 @@ import info.bliki.wiki.dump.WikiXMLParser;
 import info.bliki.wiki.filter.PlainTextConverter;
 import info.bliki.wiki.model.WikiModel;
 
-import java.util.HashSet;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeSet;
 
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.BatchWriterConfig;
@@ -34,32 +42,63 @@ import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Value;
 import org.xml.sax.SAXException;
 
-import com.google.common.collect.Sets;
 import com.accumulobook.WikipediaConstants;
+import com.accumulobook.WikipediaSplitPlanner;
 import com.accumulobook.basic.WikipediaPagesFetcher;
+import com.accumulobook.designs.termindex.TermStatistics;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.util.shell.Shell;
+import org.apache.hadoop.io.Text;
 
 /**
- * row: shardID, colfam: "", colqual: docID, value: doc
+ * row: shardID, colfam: doc\0wikiDoc, colqual: title, value: plain text
  *
- * row: shardID, colfam: indexColf\0term, colqual: docID, value: (empty)
+ * row: shardID, colfam: meta\0wikiDoc, colqual: title, value: revision\ttimestamp\tlength
+ *
+ * row: shardID, colfam: ind, colqual: term\0wikiDoc\0title\0, value: PostingValue, the
+ * varint occurrence count, the document length in tokens, then the token
+ * positions as varint deltas
+ *
+ * Per term document frequencies go to a separate stats table for scoring.
  */
 public class WikipediaIngestWithMultiTermIndexExample {
 
   private static PlainTextConverter converter;
   private static WikiModel model;
   private static BatchWriter writer;
-  private static final int NUM_PARTITIONS = 10;
+  private static BatchWriter statsWriter;
+  private static ShardScheme shards;
+
+  // token positions of one term in an article, in ascending order
+  private static class Positions {
+
+    int[] positions = new int[4];
+    int count = 0;
+
+    void add(int position) {
+      if (count == positions.length)
+        positions = Arrays.copyOf(positions, count * 2);
+      positions[count++] = position;
+    }
+  }
 
   public static class WArticleFilter implements IArticleFilter {
 
-    private static final Value BLANK_VALUE = new Value("".getBytes());
+    private final TextTokenizer tokenizer = TextTokenizer.forPartitionedIndex();
+    
+    // 2014-04-17T16:12:43Z
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    
+    public WArticleFilter() {
+      dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
 
     /*
      * row: shardID, colfam: docColf\0doctype, colqual: docID, value: doc
      * 
-     * row: shardID, colfam: indexColf, colqual: term\0doctype\0docID\0info, value: (empty)
+     * row: shardID, colfam: metaColf\0doctype, colqual: docID, value: revision\ttimestamp\tlength
+     * 
+     * row: shardID, colfam: indexColf, colqual: term\0doctype\0docID\0info, value: PostingValue
      * 
      */
     @Override
@@ -69,21 +108,52 @@ public class WikipediaIngestWithMultiTermIndexExample {
       String plaintext = model.render(converter, wikitext);
       plaintext = plaintext.replace("{{", " ").replace("}}", " ");
 
-      Mutation m = new Mutation(Integer.toString(Math.abs(article.getTitle().hashCode()) % NUM_PARTITIONS));
+      Mutation m = new Mutation(shards.shard(article.getTitle(), revisionTime(article)));
       m.put("doc" + '\0' + "wikiDoc", article.getTitle(), plaintext);      
 
-      // tokenize article contents on whitespace and punctuation and set to lowercase
-      HashSet<String> tokens = Sets.newHashSet(plaintext.toLowerCase().split("\\s+"));
-      for (String token : tokens) {
-        m.put("ind", token + '\0' + "wikiDoc" + '\0' + article.getTitle() + '\0', BLANK_VALUE);
+      // tokenize article contents on whitespace and set to lowercase, recording positions
+      HashMap<String, Positions> positions = new HashMap<>();
+      int length = 0;
+      tokenizer.reset(plaintext);
+      while (tokenizer.next()) {
+        String token = tokenizer.token();
+        Positions p = positions.get(token);
+        if (p == null) {
+          p = new Positions();
+          positions.put(token, p);
+        }
+        p.add(tokenizer.position());
+        length++;
       }
+      
+      for (Map.Entry<String, Positions> e : positions.entrySet()) {
+        m.put("ind", e.getKey() + '\0' + "wikiDoc" + '\0' + article.getTitle() + '\0',
+                new Value(PostingValue.encode(length, e.getValue().positions, e.getValue().count)));
+      }
+      
+      // small enough to return with every result
+      m.put("meta" + '\0' + "wikiDoc", article.getTitle(),
+              article.getRevisionId() + '\t' + article.getTimeStamp() + '\t' + length);
 
       try {
         writer.addMutation(m);
+        statsWriter.addMutations(TermStatistics.mutations(positions.keySet(), length));
       } catch (MutationsRejectedException e) {
         throw new SAXException(e);
       }
     }
+    
+    // time buckets go by revision time, or arrival time if the page has none
+    private Date revisionTime(WikiArticle article) {
+      if (article.getTimeStamp() != null) {
+        try {
+          return dateFormat.parse(article.getTimeStamp());
+        } catch (ParseException e) {
+          // fall through
+        }
+      }
+      return new Date();
+    }
   }
 
   public static void ingest(Connector conn, String... pages) throws Exception {
@@ -94,11 +164,37 @@ public class WikipediaIngestWithMultiTermIndexExample {
   }
 
   public static void _ingest(Connector conn, WikiXMLParser wxp) throws Exception {
+    _ingest(conn, wxp, ShardScheme.forCluster(conn));
+  }
 
-    if (!conn.tableOperations().exists(WikipediaConstants.DOC_PARTITIONED_TABLE)) {
-      conn.tableOperations().create(WikipediaConstants.DOC_PARTITIONED_TABLE);
+  /**
+   * @param conn
+   * @param wxp
+   * @param numShards shard count for a new table, an existing table keeps its own
+   * @throws Exception
+   */
+  public static void _ingest(Connector conn, WikiXMLParser wxp, int numShards) throws Exception {
+    _ingest(conn, wxp, numShards, false);
+  }
+
+  /**
+   * @param conn
+   * @param wxp
+   * @param numShards shard count for a new table, an existing table keeps its own
+   * @param timeBucketed whether a new table puts the day in front of shard IDs
+   * @throws Exception
+   */
+  public static void _ingest(Connector conn, WikiXMLParser wxp, int numShards, boolean timeBucketed) throws Exception {
+
+    // one tablet per shard, or tablets that split as days fill up
+    if (WikipediaSplitPlanner.createTable(conn, WikipediaConstants.DOC_PARTITIONED_TABLE,
+            timeBucketed ? new TreeSet<Text>() : WikipediaSplitPlanner.partitionSplits(numShards))) {
+      ShardScheme.setNumShards(conn, WikipediaConstants.DOC_PARTITIONED_TABLE, numShards);
+      ShardScheme.setTimeBucketed(conn, WikipediaConstants.DOC_PARTITIONED_TABLE, timeBucketed);
       conn.securityOperations().changeUserAuthorizations("root", new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
     }
+    shards = ShardScheme.forTable(conn, WikipediaConstants.DOC_PARTITIONED_TABLE);
+    TermStatistics.createTable(conn, WikipediaConstants.DOC_PARTITIONED_STATS_TABLE);
 
     // setup the wikipedia parser
     converter = new PlainTextConverter(true);
@@ -106,11 +202,13 @@ public class WikipediaIngestWithMultiTermIndexExample {
 
     BatchWriterConfig conf = new BatchWriterConfig();
     writer = conn.createBatchWriter(WikipediaConstants.DOC_PARTITIONED_TABLE, conf);
+    statsWriter = conn.createBatchWriter(WikipediaConstants.DOC_PARTITIONED_STATS_TABLE, conf);
 
     System.out.println("Parsing articles and indexing ...");
     wxp.parse();
 
     writer.close();
+    statsWriter.close();
     System.out.println("done.");
   }
 
@@ -126,6 +224,16 @@ public class WikipediaIngestWithMultiTermIndexExample {
       //ExampleMiniCluster.getInstanceName(), ExampleMiniCluster.getZooKeepers()};
 
     //Shell.main(shellArgs);
-    new WikipediaQueryMultiterm(conn).printResults(new String[]{"scalable","secure"});
+    WikipediaQueryMultiterm query = new WikipediaQueryMultiterm(conn);
+    query.printResults(new String[]{"scalable","secure"});
+    
+    System.out.println("best 5 articles for 'scalable' and 'secure'");
+    query.printRankedResults(new String[]{"scalable","secure"}, 5);
+    
+    System.out.println("snippets of articles containing 'scalable' and 'secure'");
+    query.printResults(new String[]{"scalable","secure"}, ProjectionIterator.Projection.SNIPPET, null, null);
+    
+    System.out.println("articles containing the phrase 'distributed file system'");
+    query.printMatches(query.phraseSearch("distributed file system", null, null));
   }
 }
@@ -16,11 +16,24 @@
  */
 package com.accumulobook.designs.multitermindex;
 
+import com.accumulobook.TextTokenizer;
+import com.accumulobook.designs.termindex.TermStatistics;
 import com.accumulobook.designs.termindex.WikipediaQuery;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
 
 import org.apache.accumulo.core.cli.ClientOpts;
 import org.apache.accumulo.core.cli.ScannerOpts;
+import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.Scanner;
@@ -45,26 +58,198 @@ public class WikipediaQueryMultiterm {
 
   public static class Opts extends ClientOpts {
 
-    @Parameter(names = "--terms", required = true, description = "comma-separated terms to search wikipedia articles for")
+    @Parameter(names = "--terms", description = "comma-separated terms to search wikipedia articles for")
     String terms;
+    
+    @Parameter(names = "--phrase", description = "exact phrase to search wikipedia articles for")
+    String phrase;
+    
+    @Parameter(names = "--projection", description = "what to print for each match: ids, metadata, snippet or full_text")
+    String projection;
+    
+    @Parameter(names = "--within", description = "only match articles with all terms within this many words of each other")
+    int within = 0;
+    
+    @Parameter(names = "--top", description = "only print the best scoring k articles, 0 for all matches")
+    int top = 0;
+    
+    @Parameter(names = "--start", description = "earliest revision day, yyyy-MM-dd, for time bucketed tables")
+    String start;
+    
+    @Parameter(names = "--stop", description = "latest revision day, yyyy-MM-dd, for time bucketed tables")
+    String stop;
   }
 
   private final Connector conn;
   private final Authorizations auths;
+  private TermStatistics stats = null;
 
   public WikipediaQueryMultiterm(Connector connector) {
     conn = connector;
     auths = new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN);
+    
+    if(conn.tableOperations().exists(WikipediaConstants.DOC_PARTITIONED_STATS_TABLE)) {
+      stats = new TermStatistics(conn, auths, WikipediaConstants.DOC_PARTITIONED_STATS_TABLE);
+    }
+  }
+  
+  /**
+   * A document and its relevance score
+   */
+  public static class ScoredDocument {
+    
+    private final String shard;
+    private final String docType;
+    private final String docID;
+    private final double score;
+
+    private ScoredDocument(Key key, Value value) {
+      String[] parts = key.getColumnQualifier().toString().split("\0");
+      this.shard = key.getRow().toString();
+      this.docType = parts[0];
+      this.docID = parts[1];
+      this.score = Double.parseDouble(value.toString());
+    }
+
+    public String getShard() {
+      return shard;
+    }
+
+    public String getDocType() {
+      return docType;
+    }
+
+    public String getDocID() {
+      return docID;
+    }
+
+    public double getScore() {
+      return score;
+    }
+  }
+  
+  private static final Comparator<ScoredDocument> BY_SCORE = new Comparator<ScoredDocument>() {
+    @Override
+    public int compare(ScoredDocument a, ScoredDocument b) {
+      return Double.compare(a.score, b.score);
+    }
+  };
+  
+  /**
+   * Find the k articles containing all the terms that score highest under
+   * BM25.
+   * 
+   * Scoring happens in the tablet servers, which each send back only their
+   * best k per shard, so at most k x shards results cross the network
+   * whatever the number of matches. Without a stats table all terms are
+   * weighted equally and lengths are not normalized.
+   * 
+   * @param terms
+   * @param k
+   * @return best documents, highest score first
+   * @throws TableNotFoundException 
+   */
+  public List<ScoredDocument> rankedSearch(String[] terms, int k) throws TableNotFoundException {
+    return rankedSearch(terms, k, null, null);
+  }
+  
+  /**
+   * Ranked search restricted to articles in a time bucketed table whose
+   * revisions fall between start and stop
+   * 
+   * @param terms
+   * @param k
+   * @param start null for no lower bound
+   * @param stop null for no upper bound
+   * @return best documents, highest score first
+   * @throws TableNotFoundException 
+   */
+  public List<ScoredDocument> rankedSearch(String[] terms, int k, Date start, Date stop) throws TableNotFoundException {
+    
+    double[] idfs = new double[terms.length];
+    double avgdl = 0;
+    
+    if(stats != null) {
+      long numDocs = stats.documentCount();
+      Map<String,Long> frequencies = stats.documentFrequencies(Arrays.asList(terms));
+      
+      for (int i = 0; i < terms.length; i++) {
+        long df = frequencies.get(terms[i]);
+        idfs[i] = Math.log(1 + (numDocs - df + 0.5) / (df + 0.5));
+      }
+      
+      if(numDocs > 0) {
+        avgdl = (double) stats.tokenCount() / numDocs;
+      }
+    } else {
+      Arrays.fill(idfs, 1.0);
+    }
+    
+    BatchScanner scanner = conn.createBatchScanner(WikipediaConstants.DOC_PARTITIONED_TABLE, auths, 10);
+    scanner.setTimeout(1, TimeUnit.MINUTES);
+    scanner.setRanges(shardRanges(start, stop));
+    
+    IteratorSetting is = new IteratorSetting(50, TopKScoringIterator.class);
+    TopKScoringIterator.setTerms(is, terms, idfs);
+    TopKScoringIterator.setK(is, k);
+    TopKScoringIterator.setAverageDocumentLength(is, avgdl);
+    scanner.addScanIterator(is);
+    
+    // merge the per shard results, keeping the best k seen so far
+    PriorityQueue<ScoredDocument> best = new PriorityQueue<>(k, BY_SCORE);
+    try {
+      for (Entry<Key, Value> entry : scanner) {
+        ScoredDocument doc = new ScoredDocument(entry.getKey(), entry.getValue());
+        
+        if(best.size() < k) {
+          best.add(doc);
+        } else if(doc.score > best.peek().score) {
+          best.poll();
+          best.add(doc);
+        }
+      }
+    } finally {
+      scanner.close();
+    }
+    
+    List<ScoredDocument> results = new ArrayList<>(best);
+    Collections.sort(results, Collections.reverseOrder(BY_SCORE));
+    return results;
+  }
+  
+  public void printRankedResults(String[] terms, int k) throws TableNotFoundException {
+    printRankedResults(terms, k, null, null);
+  }
+  
+  public void printRankedResults(String[] terms, int k, Date start, Date stop) throws TableNotFoundException {
+    
+    for (ScoredDocument doc : rankedSearch(terms, k, start, stop)) {
+      System.out.println(String.format("%8.4f  %s", doc.getScore(), doc.getDocID()));
+    }
   }
   
   /*
    * row: shardID, colfam: indexColf, colqual: doctype\0docID\0info, value: doc 
    */
   public void printResults(String[] terms) throws TableNotFoundException {
+    printResults(terms, null, null);
+  }
+  
+  /**
+   * Print articles containing all terms whose revisions fall between start
+   * and stop. Only the shards of the days in the window are scanned, which
+   * needs a time bucketed table.
+   * 
+   * @param terms
+   * @param start null for no lower bound
+   * @param stop null for no upper bound
+   * @throws TableNotFoundException 
+   */
+  public void printResults(String[] terms, Date start, Date stop) throws TableNotFoundException {
     
     BatchScanner scanner = conn.createBatchScanner(WikipediaConstants.DOC_PARTITIONED_TABLE, auths, 10);
     scanner.setTimeout(1, TimeUnit.MINUTES);
-    scanner.setRanges(Collections.singleton(new Range()));
+    scanner.setRanges(shardRanges(start, stop));
     
     Text[] termTexts = new Text[terms.length];
     for (int i = 0; i < terms.length; i++) {
@@ -82,11 +267,219 @@ public class WikipediaQueryMultiterm {
       System.out.println(
               "doctype: " + parts[0] + 
               "\ndocID:" + parts[1] +
-              "\ninfo: " + parts[2] +
+              "\ninfo: " + (parts.length > 2 ? parts[2] : "") +
               "\n\ntext: " + entry.getValue().toString());
     }
   }
 
+  /**
+   * A document matching a phrase or proximity query
+   */
+  public static class Match {
+    
+    private final String shard;
+    private final String docType;
+    private final String docID;
+    private final int position;
+
+    private Match(Key key, Value value) {
+      String[] parts = key.getColumnQualifier().toString().split("\0");
+      this.shard = key.getRow().toString();
+      this.docType = parts[0];
+      this.docID = parts[1];
+      this.position = Integer.parseInt(value.toString());
+    }
+
+    public String getShard() {
+      return shard;
+    }
+
+    public String getDocType() {
+      return docType;
+    }
+
+    public String getDocID() {
+      return docID;
+    }
+
+    /**
+     * @return token position of the first match in the document
+     */
+    public int getPosition() {
+      return position;
+    }
+  }
+  
+  /**
+   * Find articles containing a phrase. The phrase is tokenized the way
+   * articles are, and token positions are checked in the tablet servers,
+   * so only matching document IDs are returned.
+   * 
+   * @param phrase
+   * @param start null for no lower bound
+   * @param stop null for no upper bound
+   * @return matches in shard order
+   * @throws TableNotFoundException 
+   */
+  public List<Match> phraseSearch(String phrase, Date start, Date stop) throws TableNotFoundException {
+    
+    List<String> tokens = new ArrayList<>();
+    TextTokenizer tokenizer = TextTokenizer.forPartitionedIndex().reset(phrase);
+    while(tokenizer.next()) {
+      tokens.add(tokenizer.token());
+    }
+    
+    IteratorSetting is = new IteratorSetting(50, ProximityIterator.class);
+    ProximityIterator.setPhrase(is, tokens.toArray(new String[tokens.size()]));
+    
+    return matches(is, start, stop);
+  }
+  
+  /**
+   * Find articles in which all terms occur with at most window words
+   * between the first and the last
+   * 
+   * @param terms
+   * @param window
+   * @param start null for no lower bound
+   * @param stop null for no upper bound
+   * @return matches in shard order
+   * @throws TableNotFoundException 
+   */
+  public List<Match> proximitySearch(String[] terms, int window, Date start, Date stop) throws TableNotFoundException {
+    
+    IteratorSetting is = new IteratorSetting(50, ProximityIterator.class);
+    ProximityIterator.setWithin(is, window, terms);
+    
+    return matches(is, start, stop);
+  }
+  
+  private List<Match> matches(IteratorSetting is, Date start, Date stop) throws TableNotFoundException {
+    
+    BatchScanner scanner = conn.createBatchScanner(WikipediaConstants.DOC_PARTITIONED_TABLE, auths, 10);
+    scanner.setTimeout(1, TimeUnit.MINUTES);
+    scanner.setRanges(shardRanges(start, stop));
+    scanner.addScanIterator(is);
+    
+    List<Match> matches = new ArrayList<>();
+    try {
+      for (Entry<Key, Value> entry : scanner) {
+        matches.add(new Match(entry.getKey(), entry.getValue()));
+      }
+    } finally {
+      scanner.close();
+    }
+    
+    return matches;
+  }
+  
+  public void printMatches(List<Match> matches) {
+    
+    for (Match match : matches) {
+      System.out.println(String.format("%8d  %s", match.getPosition(), match.getDocID()));
+    }
+  }
+  
+  /**
+   * A document containing all query terms, with whatever projection of it
+   * was asked for
+   */
+  public static class Hit {
+    
+    private final String shard;
+    private final String docType;
+    private final String docID;
+    private final String content;
+
+    private Hit(Key key, Value value) {
+      String[] parts = key.getColumnQualifier().toString().split("\0");
+      this.shard = key.getRow().toString();
+      this.docType = parts[0];
+      this.docID = parts[1];
+      this.content = value.getSize() == 0 ? null : value.toString();
+    }
+
+    public String getShard() {
+      return shard;
+    }
+
+    public String getDocType() {
+      return docType;
+    }
+
+    public String getDocID() {
+      return docID;
+    }
+
+    /**
+     * @return metadata, snippet or text depending on the projection, null
+     * for IDS or if the document has none
+     */
+    public String getContent() {
+      return content;
+    }
+  }
+  
+  /**
+   * Find articles containing all terms, returning only the part of each
+   * the caller needs. Projections are computed in the tablet servers, so
+   * the bytes sent back depend on the projection rather than on how long
+   * the articles are.
+   * 
+   * @param terms
+   * @param projection
+   * @param start null for no lower bound
+   * @param stop null for no upper bound
+   * @return hits in shard order
+   * @throws TableNotFoundException 
+   */
+  public List<Hit> search(String[] terms, ProjectionIterator.Projection projection, Date start, Date stop) throws TableNotFoundException {
+    
+    BatchScanner scanner = conn.createBatchScanner(WikipediaConstants.DOC_PARTITIONED_TABLE, auths, 10);
+    scanner.setTimeout(1, TimeUnit.MINUTES);
+    scanner.setRanges(shardRanges(start, stop));
+    
+    IteratorSetting is = new IteratorSetting(50, ProjectionIterator.class);
+    ProjectionIterator.setTerms(is, terms);
+    ProjectionIterator.setProjection(is, projection);
+    scanner.addScanIterator(is);
+    
+    List<Hit> hits = new ArrayList<>();
+    try {
+      for (Entry<Key, Value> entry : scanner) {
+        hits.add(new Hit(entry.getKey(), entry.getValue()));
+      }
+    } finally {
+      scanner.close();
+    }
+    
+    return hits;
+  }
+  
+  public void printResults(String[] terms, ProjectionIterator.Projection projection, Date start, Date stop) throws TableNotFoundException {
+    
+    for (Hit hit : search(terms, projection, start, stop)) {
+      System.out.println("docID: " + hit.getDocID());
+      if(hit.getContent() != null) {
+        System.out.println(hit.getContent());
+      }
+      System.out.println();
+    }
+  }
+  
+  private Collection<Range> shardRanges(Date start, Date stop) throws TableNotFoundException {
+    
+    if(start == null && stop == null) {
+      return Collections.singleton(new Range());
+    }
+    
+    try {
+      return ShardScheme.forTable(conn, WikipediaConstants.DOC_PARTITIONED_TABLE).ranges(start, stop);
+    } catch (AccumuloException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+  
   public static void main(String[] args) throws Exception {
 
     Opts opts = new Opts();
@@ -95,7 +488,27 @@ public class WikipediaQueryMultiterm {
     opts.parseArgs(WikipediaQuery.class.getName(), args, sOpts);
     Connector conn = opts.getConnector();
 
-    new WikipediaQueryMultiterm(conn).printResults(opts.terms.split(","));
+    SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+    df.setTimeZone(TimeZone.getTimeZone("UTC"));
+    Date start = opts.start == null ? null : df.parse(opts.start);
+    Date stop = opts.stop == null ? null : df.parse(opts.stop);
+    
+    WikipediaQueryMultiterm query = new WikipediaQueryMultiterm(conn);
+    if(opts.phrase != null) {
+      query.printMatches(query.phraseSearch(opts.phrase, start, stop));
+    } else if(opts.terms == null) {
+      System.err.println("either --terms or --phrase is required");
+      System.exit(1);
+    } else if(opts.within > 0) {
+      query.printMatches(query.proximitySearch(opts.terms.split(","), opts.within, start, stop));
+    } else if(opts.top > 0) {
+      query.printRankedResults(opts.terms.split(","), opts.top, start, stop);
+    } else if(opts.projection != null) {
+      query.printResults(opts.terms.split(","),
+              ProjectionIterator.Projection.valueOf(opts.projection.toUpperCase()), start, stop);
+    } else {
+      query.printResults(opts.terms.split(","), start, stop);
+    }
 
   }
 }
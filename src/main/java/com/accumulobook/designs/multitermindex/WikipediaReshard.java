@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.multitermindex;
+
+import com.accumulobook.WikipediaConstants;
+import com.accumulobook.WikipediaSplitPlanner;
+import com.beust.jcommander.Parameter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import org.apache.accumulo.core.cli.BatchWriterOpts;
+import org.apache.accumulo.core.cli.ClientOpts;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Move the documents of the partitioned table to a new number of shards
+ * while the table stays online.
+ *
+ * The new shard count is recorded first, so ingest started afterwards
+ * already writes to the new layout. Then each existing shard is read once,
+ * copying every entry whose document now belongs elsewhere to its new
+ * shard. After a batch of copies is flushed, exactly the keys that were
+ * copied - row, column, visibility and timestamp - are deleted from the old
+ * shard, so entries written while the job runs are never removed unless
+ * they were moved. Queries running meanwhile may see a moved document twice
+ * but never miss one. Entries keep their timestamps, and re-running the job
+ * after a failure is safe.
+ *
+ * Also moves tables written with the old title.hashCode() shard function
+ * onto the consistent hash, when run with the same shard count. In time
+ * bucketed tables documents change shard within their day.
+ */
+public class WikipediaReshard {
+
+  public static class Opts extends ClientOpts {
+
+    @Parameter(names = "--shards", required = true, description = "new number of shards")
+    int shards;
+  }
+
+  // copies flushed before their originals are deleted
+  private static final int MOVE_BATCH = 10000;
+
+  private final Connector conn;
+  private final String table;
+  private final Authorizations auths;
+
+  public WikipediaReshard(final Connector conn, final String table) {
+    this.conn = conn;
+    this.table = table;
+    this.auths = new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN);
+  }
+
+  /**
+   * @param numShards
+   * @return number of entries moved
+   * @throws Exception
+   */
+  public long reshard(final int numShards) throws Exception {
+
+    ShardScheme scheme = new ShardScheme(numShards, ShardScheme.forTable(conn, table).isTimeBucketed());
+
+    // a tablet for each new shard, then new documents go to the new layout.
+    // time bucketed tables get tablets for new days as they grow
+    if (!scheme.isTimeBucketed())
+      conn.tableOperations().addSplits(table, WikipediaSplitPlanner.partitionSplits(numShards));
+    ShardScheme.setNumShards(conn, table, numShards);
+
+    long moved = 0;
+    Text row = nextRow(null);
+    while (row != null) {
+      System.out.println("resharding shard " + row + " ...");
+
+      moved += moveRow(row, scheme);
+
+      row = nextRow(row);
+    }
+
+    System.out.println("moved " + moved + " entries");
+    return moved;
+  }
+
+  /**
+   * Move the entries of a shard that belong in another shard, deleting
+   * each original only once its copy is flushed
+   *
+   * @return number of entries moved
+   */
+  private long moveRow(final Text row, final ShardScheme scheme) throws Exception {
+
+    Scanner scanner = conn.createScanner(table, auths);
+    scanner.setRange(new Range(row));
+
+    BatchWriter writer = conn.createBatchWriter(table, new BatchWriterConfig());
+    List<Mutation> deletes = new ArrayList<>();
+    long count = 0;
+
+    try {
+      String shard = row.toString();
+      for (Entry<Key, Value> entry : scanner) {
+        Key key = entry.getKey();
+        String target = scheme.reshard(shard, docID(key));
+        if (target.equals(shard))
+          continue;
+
+        ColumnVisibility cv = new ColumnVisibility(key.getColumnVisibility());
+        Mutation m = new Mutation(target);
+        m.put(key.getColumnFamily(), key.getColumnQualifier(), cv, key.getTimestamp(), entry.getValue());
+        writer.addMutation(m);
+
+        Mutation d = new Mutation(row);
+        d.putDelete(key.getColumnFamily(), key.getColumnQualifier(), cv, key.getTimestamp());
+        deletes.add(d);
+        count++;
+
+        if (deletes.size() >= MOVE_BATCH)
+          deleteCopied(writer, deletes);
+      }
+      deleteCopied(writer, deletes);
+    } finally {
+      writer.close();
+    }
+
+    return count;
+  }
+
+  /**
+   * Deletes the originals of copies already given to the writer
+   */
+  private static void deleteCopied(final BatchWriter writer, final List<Mutation> deletes) throws Exception {
+    if (deletes.isEmpty())
+      return;
+
+    // copies must be durable before the originals are deleted
+    writer.flush();
+    writer.addMutations(deletes);
+    deletes.clear();
+  }
+
+  /**
+   * Document entries have the ID as their qualifier, index entries have
+   * term\0doctype\0docID\0info
+   */
+  private static String docID(final Key key) {
+    String cq = key.getColumnQualifier().toString();
+    if (!key.getColumnFamily().toString().equals("ind"))
+      return cq;
+
+    return cq.split("\0")[2];
+  }
+
+  private Text nextRow(final Text after) throws Exception {
+
+    Scanner scanner = conn.createScanner(table, auths);
+    scanner.setBatchSize(1);
+    if (after != null)
+      scanner.setRange(new Range(new Key(after).followingKey(PartialKey.ROW), true, null, false));
+
+    Iterator<Entry<Key, Value>> iter = scanner.iterator();
+    return iter.hasNext() ? iter.next().getKey().getRow() : null;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    Opts opts = new Opts();
+    BatchWriterOpts bwOpts = new BatchWriterOpts();
+    opts.parseArgs(WikipediaReshard.class.getName(), args, bwOpts);
+
+    Connector conn = opts.getConnector();
+
+    new WikipediaReshard(conn, WikipediaConstants.DOC_PARTITIONED_TABLE).reshard(opts.shards);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.termindex;
+
+import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.WikipediaConstants;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
+import java.io.File;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.security.Authorizations;
+
+/**
+ * Compare loading a dump through BatchWriters with converting it to RFiles
+ * and bulk importing, using the mini cluster.
+ *
+ * usage: BulkIngestBenchmark [dump file]
+ */
+public class BulkIngestBenchmark {
+
+  private static void dropTables(Connector conn) throws Exception {
+    for (String table : new String[]{
+      WikipediaConstants.ARTICLES_TABLE, WikipediaConstants.INDEX_TABLE, WikipediaConstants.INDEX_STATS_TABLE}) {
+      if (conn.tableOperations().exists(table))
+        conn.tableOperations().delete(table);
+    }
+  }
+
+  private static long countEntries(Connector conn, String table) throws Exception {
+    Scanner scanner = conn.createScanner(table, new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
+    return Iterables.size(scanner);
+  }
+
+  private static void report(Connector conn, String name, long millis) throws Exception {
+    System.out.println(String.format("%-12s %8d ms  %8d article entries  %8d index entries",
+            name,
+            millis,
+            countEntries(conn, WikipediaConstants.ARTICLES_TABLE),
+            countEntries(conn, WikipediaConstants.INDEX_TABLE)));
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    String dump = args.length > 0 ? args[0] : "data/WikipediaOlympics.xml";
+    Connector conn = ExampleMiniCluster.getConnector();
+
+    // BatchWriter path
+    dropTables(conn);
+    long start = System.currentTimeMillis();
+    WikipediaIngestWithIndexExample.ingest(conn, dump);
+    long batchWriterMillis = System.currentTimeMillis() - start;
+    report(conn, "batchwriter", batchWriterMillis);
+
+    // RFile and bulk import path
+    dropTables(conn);
+    File workDir = Files.createTempDir();
+    start = System.currentTimeMillis();
+    new WikipediaBulkIngest(conn, workDir.getAbsolutePath(), 64 * 1024 * 1024).ingest(dump);
+    long bulkMillis = System.currentTimeMillis() - start;
+    report(conn, "bulk import", bulkMillis);
+
+    System.out.println(String.format("bulk import took %.2fx the time of the BatchWriter path",
+            (double) bulkMillis / batchWriterMillis));
+
+    ExampleMiniCluster.shutdown();
+    System.exit(0);
+  }
+}
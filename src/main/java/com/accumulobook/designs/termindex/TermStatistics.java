@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.termindex;
+
+import com.accumulobook.WikipediaConstants;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.TableExistsException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.SummingCombiner;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Per term document frequencies for the term index.
+ *
+ * Indexers write a count of one for each distinct term in an article, and
+ * one for the article itself under the documents row. A SummingCombiner on
+ * the stats table adds them up, so the table always holds the number of
+ * articles containing each term and the number of articles indexed.
+ *
+ * Lookups are cached, since query planning asks for the same common terms
+ * over and over and an approximate, slightly stale count is good enough to
+ * order work by selectivity.
+ */
+public class TermStatistics {
+
+  private static final Value ONE = new Value("1".getBytes());
+
+  public static final int CACHE_SIZE = 100000;
+  public static final long CACHE_EXPIRY_SECONDS = 300;
+
+  private final Connector conn;
+  private final Authorizations auths;
+  private final String table;
+  private final LoadingCache<String, Long> frequencies;
+
+  public TermStatistics(final Connector conn, final Authorizations auths) {
+    this(conn, auths, WikipediaConstants.INDEX_STATS_TABLE);
+  }
+
+  /**
+   *
+   * @param conn
+   * @param auths
+   * @param table stats table to read
+   */
+  public TermStatistics(final Connector conn, final Authorizations auths, final String table) {
+    this.conn = conn;
+    this.auths = auths;
+    this.table = table;
+
+    this.frequencies = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .expireAfterWrite(CACHE_EXPIRY_SECONDS, TimeUnit.SECONDS)
+            .build(new CacheLoader<String, Long>() {
+
+              @Override
+              public Long load(String term) throws Exception {
+                Long frequency = lookup(new Range(term), WikipediaConstants.DOC_FREQUENCY_FAMILY).get(term);
+                return frequency == null ? 0L : frequency;
+              }
+
+              // fetch all uncached terms with one BatchScanner
+              @Override
+              public Map<String, Long> loadAll(Iterable<? extends String> terms) throws Exception {
+                List<Range> ranges = new ArrayList<>();
+                for (String term : terms)
+                  ranges.add(new Range(term));
+
+                Map<String, Long> found = lookup(ranges, WikipediaConstants.DOC_FREQUENCY_FAMILY);
+                for (String term : terms) {
+                  if (!found.containsKey(term))
+                    found.put(term, 0L);
+                }
+                return found;
+              }
+            });
+  }
+
+  /**
+   * Create the stats table with a SummingCombiner over the counts, if it
+   * does not exist
+   *
+   * @param conn
+   * @return true if the table was created
+   */
+  public static boolean createTable(final Connector conn) throws
+          AccumuloException,
+          AccumuloSecurityException,
+          TableExistsException,
+          TableNotFoundException {
+    return createTable(conn, WikipediaConstants.INDEX_STATS_TABLE);
+  }
+
+  public static boolean createTable(final Connector conn, final String table) throws
+          AccumuloException,
+          AccumuloSecurityException,
+          TableExistsException,
+          TableNotFoundException {
+
+    if (conn.tableOperations().exists(table))
+      return false;
+
+    conn.tableOperations().create(table);
+
+    IteratorSetting iterSet = new IteratorSetting(
+            10,
+            "summingCombiner",
+            SummingCombiner.class.getName());
+
+    SummingCombiner.setEncodingType(iterSet, SummingCombiner.Type.STRING);
+
+    List<IteratorSetting.Column> columns = new ArrayList<>();
+    columns.add(new IteratorSetting.Column(WikipediaConstants.DOC_FREQUENCY_FAMILY));
+    columns.add(new IteratorSetting.Column(WikipediaConstants.TOTALS_FAMILY));
+
+    SummingCombiner.setColumns(iterSet, columns);
+    conn.tableOperations().attachIterator(table, iterSet);
+
+    return true;
+  }
+
+  /**
+   * Build the stats table mutations for one indexed article
+   *
+   * @param terms distinct terms in the article
+   * @return mutations counting the article once under each term
+   */
+  public static List<Mutation> mutations(final Collection<String> terms) {
+
+    List<Mutation> mutations = new ArrayList<>(terms.size() + 1);
+    for (String term : terms) {
+      Mutation m = new Mutation(term);
+      m.put(WikipediaConstants.DOC_FREQUENCY_FAMILY, "", ONE);
+      mutations.add(m);
+    }
+
+    mutations.add(documentsMutation(1));
+    return mutations;
+  }
+
+  /**
+   * Build the stats table mutations for one indexed article, also adding
+   * its length to the total number of tokens indexed
+   *
+   * @param terms distinct terms in the article
+   * @param length number of tokens in the article
+   * @return mutations
+   */
+  public static List<Mutation> mutations(final Collection<String> terms, final long length) {
+
+    List<Mutation> mutations = mutations(terms);
+
+    Mutation m = new Mutation(WikipediaConstants.TOKENS_ROW);
+    m.put(WikipediaConstants.TOTALS_FAMILY, "", Long.toString(length));
+    mutations.add(m);
+
+    return mutations;
+  }
+
+  /**
+   * Build a mutation adding a count to the document frequency of a term
+   */
+  public static Mutation termMutation(final String term, final long count) {
+    Mutation m = new Mutation(term);
+    m.put(WikipediaConstants.DOC_FREQUENCY_FAMILY, "", Long.toString(count));
+    return m;
+  }
+
+  /**
+   * Build a mutation adding to the number of articles indexed
+   */
+  public static Mutation documentsMutation(final long count) {
+    Mutation m = new Mutation(WikipediaConstants.DOCUMENTS_ROW);
+    m.put(WikipediaConstants.TOTALS_FAMILY, "", Long.toString(count));
+    return m;
+  }
+
+  /**
+   * @param term
+   * @return number of articles containing the term, 0 if it was never indexed
+   */
+  public long documentFrequency(final String term) {
+    try {
+      return frequencies.get(term);
+    } catch (ExecutionException | UncheckedExecutionException ex) {
+      throw new IllegalStateException(ex.getCause());
+    }
+  }
+
+  /**
+   * Look up several terms at once, fetching any that are not cached with
+   * a single BatchScanner
+   *
+   * @param terms
+   * @return document frequency of every term
+   */
+  public Map<String, Long> documentFrequencies(final Collection<String> terms) {
+    try {
+      return frequencies.getAll(terms);
+    } catch (ExecutionException | UncheckedExecutionException ex) {
+      throw new IllegalStateException(ex.getCause());
+    }
+  }
+
+  /**
+   * @return number of articles indexed, not cached
+   */
+  public long documentCount() {
+    return total(WikipediaConstants.DOCUMENTS_ROW);
+  }
+
+  /**
+   * @return total length in tokens of the articles indexed, 0 if the
+   * indexer does not record lengths. Not cached.
+   */
+  public long tokenCount() {
+    return total(WikipediaConstants.TOKENS_ROW);
+  }
+
+  private long total(final String row) {
+    try {
+      Long count = lookup(new Range(row), WikipediaConstants.TOTALS_FAMILY).get(row);
+      return count == null ? 0 : count;
+    } catch (TableNotFoundException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Forget cached frequencies, e.g. after a large ingest
+   */
+  public void invalidate() {
+    frequencies.invalidateAll();
+  }
+
+  private Map<String, Long> lookup(final Range range, final String family) throws TableNotFoundException {
+    List<Range> ranges = new ArrayList<>(1);
+    ranges.add(range);
+    return lookup(ranges, family);
+  }
+
+  private Map<String, Long> lookup(final Collection<Range> ranges, final String family) throws TableNotFoundException {
+
+    Map<String, Long> counts = new HashMap<>();
+    if (ranges.isEmpty())
+      return counts;
+
+    BatchScanner scanner = conn.createBatchScanner(table, auths, 10);
+    try {
+      scanner.setRanges(ranges);
+      scanner.fetchColumnFamily(new Text(family));
+
+      for (Entry<Key, Value> entry : scanner) {
+        counts.put(entry.getKey().getRow().toString(), Long.parseLong(entry.getValue().toString()));
+      }
+    } finally {
+      scanner.close();
+    }
+
+    return counts;
+  }
+}
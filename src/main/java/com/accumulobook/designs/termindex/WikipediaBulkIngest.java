@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.accumulobook.designs.termindex;
+
+import com.accumulobook.WikipediaConstants;
+import com.accumulobook.WikipediaSplitPlanner;
+import com.beust.jcommander.Parameter;
+import info.bliki.wiki.dump.IArticleFilter;
+import info.bliki.wiki.dump.Siteinfo;
+import info.bliki.wiki.dump.WikiArticle;
+import info.bliki.wiki.dump.WikiXMLParser;
+import info.bliki.wiki.filter.PlainTextConverter;
+import info.bliki.wiki.model.WikiModel;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.accumulo.core.cli.BatchWriterOpts;
+import org.apache.accumulo.core.cli.ClientOpts;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.data.ColumnUpdate;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.FileOperations;
+import org.apache.accumulo.core.file.FileSKVWriter;
+import org.apache.accumulo.core.file.rfile.RFile;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.xml.sax.SAXException;
+
+/**
+ * Load a Wikipedia dump by writing sorted RFiles and bulk importing them,
+ * instead of sending every article through a BatchWriter.
+ *
+ * Produces the same layout as WikipediaIngestWithIndexExample: articles go
+ * to the articles table, term and date index entries to the index table,
+ * and document frequencies to the stats table. Frequencies are totalled in
+ * memory and written once at the end, since identical keys in one import
+ * would overwrite each other rather than being summed.
+ * Entries are buffered in memory, and each time the buffer fills it is
+ * written out as one RFile per tablet of the destination table so that
+ * importDirectory does not have to assign a file to several tablets.
+ */
+public class WikipediaBulkIngest {
+
+  public static class Opts extends ClientOpts {
+
+    @Parameter(names = "--input", required = true, description = "wikipedia dump file")
+    String inputFile;
+
+    @Parameter(names = "--workDir", required = true, description = "directory for generated RFiles")
+    String workDir;
+
+    @Parameter(names = "--bufferSize", description = "bytes of key/values to sort in memory before writing files, across all tables")
+    long bufferSize = 64 * 1024 * 1024;
+  }
+
+  private final Connector conn;
+  private final FileSystem fs;
+  private final Configuration conf;
+  private final Path workDir;
+  private final long bufferSize;
+
+  private TableFiles articles;
+  private TableFiles index;
+  private TableFiles stats;
+  private final Map<String, Long> docFrequencies = new HashMap<>();
+
+  // bytes buffered across all tables, kept under bufferSize
+  private long totalBufferedBytes = 0;
+  private int articleCount;
+
+  /**
+   * Sorted buffer and generated files for one destination table
+   */
+  private class TableFiles {
+
+    private final String table;
+    private final Path dir;
+    private final Path failures;
+    private final TreeSet<Text> splits;
+    private final TreeMap<Key, Value> buffer = new TreeMap<>();
+    private long bufferedBytes = 0;
+    private int run = 0;
+    private int numFiles = 0;
+
+    TableFiles(String table) throws Exception {
+      this.table = table;
+      this.dir = new Path(workDir, table + "/files");
+      this.failures = new Path(workDir, table + "/failures");
+      this.splits = new TreeSet<>(conn.tableOperations().listSplits(table));
+
+      fs.delete(new Path(workDir, table), true);
+      fs.mkdirs(dir);
+      fs.mkdirs(failures);
+    }
+
+    void add(Mutation m, long timestamp) throws IOException {
+
+      byte[] row = m.getRow();
+      for (ColumnUpdate update : m.getUpdates()) {
+        Key key = new Key(
+                row,
+                update.getColumnFamily(),
+                update.getColumnQualifier(),
+                update.getColumnVisibility(),
+                update.hasTimestamp() ? update.getTimestamp() : timestamp);
+        Value value = new Value(update.getValue());
+
+        buffer.put(key, value);
+        bufferedBytes += key.getSize() + value.getSize();
+        totalBufferedBytes += key.getSize() + value.getSize();
+      }
+
+      if (totalBufferedBytes >= bufferSize)
+        largestBuffer().writeRun();
+    }
+
+    /**
+     * Write the buffer out as one RFile per tablet, using the tablets'
+     * end rows to decide where each file stops
+     */
+    void writeRun() throws IOException {
+
+      if (buffer.isEmpty())
+        return;
+
+      FileSKVWriter writer = null;
+      Text endRow = null;
+      boolean lastTablet = false;
+      int tablet = 0;
+
+      for (Map.Entry<Key, Value> e : buffer.entrySet()) {
+        Text row = e.getKey().getRow();
+
+        if (writer == null || (!lastTablet && row.compareTo(endRow) > 0)) {
+          if (writer != null)
+            writer.close();
+
+          // the tablet containing row is the first one whose end row is >= row
+          endRow = splits.ceiling(row);
+          lastTablet = endRow == null;
+          tablet = lastTablet ? splits.size() : splits.headSet(endRow).size();
+
+          String file = new Path(dir, String.format("run%05d_tablet%05d.%s", run, tablet, RFile.EXTENSION)).toString();
+          writer = FileOperations.getInstance().openWriter(file, fs, conf, AccumuloConfiguration.getDefaultConfiguration());
+          writer.startDefaultLocalityGroup();
+          numFiles++;
+        }
+
+        writer.append(e.getKey(), e.getValue());
+      }
+
+      writer.close();
+
+      buffer.clear();
+      totalBufferedBytes -= bufferedBytes;
+      bufferedBytes = 0;
+      run++;
+    }
+
+    void importFiles() throws Exception {
+
+      writeRun();
+
+      System.out.println("importing " + numFiles + " files into " + table + " ...");
+      conn.tableOperations().importDirectory(table, dir.toString(), failures.toString(), false);
+
+      FileStatus[] failed = fs.listStatus(failures);
+      if (failed != null && failed.length > 0)
+        throw new IOException(failed.length + " files failed to import into " + table + ", see " + failures);
+    }
+  }
+
+  private TableFiles largestBuffer() {
+    TableFiles largest = articles;
+    for (TableFiles t : new TableFiles[]{index, stats}) {
+      if (t != null && t.bufferedBytes > largest.bufferedBytes)
+        largest = t;
+    }
+    return largest;
+  }
+
+  private class BulkArticleFilter implements IArticleFilter {
+
+    private final WikiModel model = new WikiModel("", "");
+    private final PlainTextConverter converter = new PlainTextConverter(true);
+    private final long timestamp = System.currentTimeMillis();
+
+    @Override
+    public void process(WikiArticle page, Siteinfo info) throws SAXException {
+
+      String plaintext = model.render(converter, page.getText())
+              .replace("{{", " ")
+              .replace("}}", " ");
+
+      try {
+        articles.add(WikipediaIngestWithIndexExample.WArticleFilter.articleMutation(page, plaintext), timestamp);
+
+        Set<String> terms = WikipediaIngestWithIndexExample.WArticleFilter.terms(plaintext);
+        for (Mutation m : WikipediaIngestWithIndexExample.WArticleFilter.indexMutations(page, terms))
+          index.add(m, timestamp);
+
+        for (String term : terms) {
+          Long count = docFrequencies.get(term);
+          docFrequencies.put(term, count == null ? 1 : count + 1);
+        }
+      } catch (IOException ex) {
+        throw new SAXException(ex);
+      }
+
+      articleCount++;
+    }
+  }
+
+  /**
+   *
+   * @param conn
+   * @param workDir directory in which to write RFiles, must be readable by the tablet servers
+   * @param bufferSize bytes of key/values to sort in memory before writing,
+   * shared by the articles, index and stats tables
+   * @throws IOException
+   */
+  public WikipediaBulkIngest(
+          final Connector conn,
+          final String workDir,
+          final long bufferSize) throws IOException {
+
+    this.conn = conn;
+    this.conf = new Configuration();
+    this.workDir = new Path(workDir);
+    this.fs = this.workDir.getFileSystem(conf);
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Convert a dump file into RFiles split along the current split points of
+   * the articles and index tables, then bulk import them
+   *
+   * @param filename
+   * @return number of articles loaded
+   * @throws Exception
+   */
+  public int ingest(final String filename) throws Exception {
+
+    // new tables are presplit so the generated files spread across the cluster
+    WikipediaSplitPlanner planner = WikipediaSplitPlanner.forCluster(conn);
+    planner.sample(filename, WikipediaSplitPlanner.DEFAULT_SAMPLE_SIZE);
+    
+    if (WikipediaSplitPlanner.createTable(conn, WikipediaConstants.ARTICLES_TABLE, planner.articleSplits())) {
+      conn.securityOperations().changeUserAuthorizations("root", new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
+    }
+    if (WikipediaSplitPlanner.createTable(conn, WikipediaConstants.INDEX_TABLE, planner.indexSplits())) {
+      conn.securityOperations().changeUserAuthorizations("root", new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
+    }
+    TermStatistics.createTable(conn);
+
+    articles = new TableFiles(WikipediaConstants.ARTICLES_TABLE);
+    index = new TableFiles(WikipediaConstants.INDEX_TABLE);
+    stats = new TableFiles(WikipediaConstants.INDEX_STATS_TABLE);
+    docFrequencies.clear();
+    totalBufferedBytes = 0;
+    articleCount = 0;
+
+    System.out.println("Parsing articles and writing RFiles ...");
+    WikiXMLParser wxp = new WikiXMLParser(filename, new BulkArticleFilter());
+    wxp.parse();
+
+    // the stats table's combiner adds these to any existing counts
+    long timestamp = System.currentTimeMillis();
+    for (Map.Entry<String, Long> e : docFrequencies.entrySet())
+      stats.add(TermStatistics.termMutation(e.getKey(), e.getValue()), timestamp);
+    stats.add(TermStatistics.documentsMutation(articleCount), timestamp);
+
+    articles.importFiles();
+    index.importFiles();
+    stats.importFiles();
+    System.out.println("done.");
+
+    return articleCount;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    Opts opts = new Opts();
+    BatchWriterOpts bwOpts = new BatchWriterOpts();
+    opts.parseArgs(WikipediaBulkIngest.class.getName(), args, bwOpts);
+
+    Connector conn = opts.getConnector();
+
+    new WikipediaBulkIngest(conn, opts.workDir, opts.bufferSize).ingest(opts.inputFile);
+  }
+}
@@ -17,8 +17,9 @@
 package com.accumulobook.designs.termindex;
 
 import com.accumulobook.ExampleMiniCluster;
-import com.google.common.collect.Sets;
 import com.accumulobook.WikipediaConstants;
+import com.accumulobook.WikipediaSplitPlanner;
+import com.accumulobook.TextTokenizer;
 import com.accumulobook.basic.WikipediaPagesFetcher;
 import info.bliki.wiki.dump.IArticleFilter;
 import info.bliki.wiki.dump.Siteinfo;
@@ -42,10 +43,13 @@ public class WikipediaIngestMultiTableExample {
 	private static WikiModel model;
 	private static BatchWriter writer;
 	private static BatchWriter indexWriter;
+	private static BatchWriter statsWriter;
 	
 	public static class WArticleFilter implements IArticleFilter {
 
 		private static final Value BLANK_VALUE = new Value("".getBytes());
+		
+		private final TextTokenizer tokenizer = TextTokenizer.forIndex();
 
 		@Override
 		public void process(WikiArticle page, Siteinfo info)
@@ -75,11 +79,13 @@ public class WikipediaIngestMultiTableExample {
 			
 			// write index entries
 			
-			// tokenize article contents on whitespace and punctuation and set to lowercase
-			HashSet<String> tokens = Sets.newHashSet(plaintext.replace("\"","").toLowerCase().split("\\s+"));
+			// tokenize article contents on whitespace, drop quotes and single letters, set to lowercase
+			HashSet<String> tokens = new HashSet<>();
+			tokenizer.reset(plaintext);
+			while(tokenizer.next())
+				tokens.add(tokenizer.token());
+			
 			for(String token : tokens) {
-				if(token.length() < 2) // skip single letters
-					continue;
 				Mutation indexMutation = new Mutation(token);
 				indexMutation.put(WikipediaConstants.CONTENTS_FAMILY, page.getTitle(), BLANK_VALUE);
 				try {
@@ -88,6 +94,13 @@ public class WikipediaIngestMultiTableExample {
 					e.printStackTrace();
 				}
 			}
+			
+			// count each term once per article
+			try {
+				statsWriter.addMutations(TermStatistics.mutations(tokens));
+			} catch (MutationsRejectedException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
@@ -100,17 +113,20 @@ public class WikipediaIngestMultiTableExample {
   }
   
 	public static void _ingest(Connector conn, WikiXMLParser wxp) {
+		_ingest(conn, wxp, WikipediaSplitPlanner.forCluster(conn));
+	}
+	
+	public static void _ingest(Connector conn, WikiXMLParser wxp, WikipediaSplitPlanner planner) {
 	
 		try {
 	
-			if(!conn.tableOperations().exists(WikipediaConstants.ARTICLES_TABLE)) {
-				conn.tableOperations().create(WikipediaConstants.ARTICLES_TABLE);
+			if(WikipediaSplitPlanner.createTable(conn, WikipediaConstants.ARTICLES_TABLE, planner.articleSplits())) {
 				conn.securityOperations().changeUserAuthorizations("root", new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
 			}
-			if(!conn.tableOperations().exists(WikipediaConstants.INDEX_TABLE)) {
-				conn.tableOperations().create(WikipediaConstants.INDEX_TABLE);
+			if(WikipediaSplitPlanner.createTable(conn, WikipediaConstants.INDEX_TABLE, planner.indexSplits())) {
 				conn.securityOperations().changeUserAuthorizations("root", new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
 			}
+			TermStatistics.createTable(conn);
 			
 			// setup the wikipedia parser
 			converter = new PlainTextConverter(true);
@@ -121,6 +137,7 @@ public class WikipediaIngestMultiTableExample {
 			
 			writer = multiTableBatchWriter.getBatchWriter(WikipediaConstants.ARTICLES_TABLE);
 			indexWriter = multiTableBatchWriter.getBatchWriter(WikipediaConstants.INDEX_TABLE);
+			statsWriter = multiTableBatchWriter.getBatchWriter(WikipediaConstants.INDEX_STATS_TABLE);
 			
 			System.out.println("Parsing articles and indexing ...");
 			wxp.parse();
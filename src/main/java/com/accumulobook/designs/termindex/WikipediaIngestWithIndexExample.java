@@ -23,7 +23,10 @@ import info.bliki.wiki.dump.WikiXMLParser;
 import info.bliki.wiki.filter.PlainTextConverter;
 import info.bliki.wiki.model.WikiModel;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.BatchWriterConfig;
@@ -34,13 +37,16 @@ import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
 import org.xml.sax.SAXException;
 
-import com.google.common.collect.Sets;
 import com.accumulobook.ExampleMiniCluster;
+import com.accumulobook.TextTokenizer;
 import com.accumulobook.WikipediaConstants;
+import com.accumulobook.WikipediaSplitPlanner;
+import com.accumulobook.basic.Article;
+import com.accumulobook.basic.ChangedArticleFilter;
 import com.accumulobook.basic.WikipediaPagesFetcher;
+import com.google.common.base.Function;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.accumulo.core.client.lexicoder.DateLexicoder;
@@ -52,6 +58,7 @@ public class WikipediaIngestWithIndexExample {
 	private static WikiModel model;
 	private static BatchWriter writer;
 	private static BatchWriter indexWriter;
+	private static BatchWriter statsWriter;
 	
 	public static class WArticleFilter implements IArticleFilter {
 
@@ -72,76 +79,218 @@ public class WikipediaIngestWithIndexExample {
 					.replace("}}", " ");
 			
       try {
-        Mutation m = new Mutation(page.getTitle());
-        m.put(WikipediaConstants.CONTENTS_FAMILY, "", plaintext);
-        m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.NAMESPACE_QUAL, page.getNamespace());
-        m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.TIMESTAMP_QUAL, page.getTimeStamp());
-        m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.ID_QUAL, page.getId());
-        m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.REVISION_QUAL, page.getRevisionId());
+        writer.addMutation(articleMutation(page, plaintext));
 
-        writer.addMutation(m);
+        // write index entries as well, and count each term once per article
+        Set<String> terms = terms(plaintext);
+        indexWriter.addMutations(indexMutations(page, terms));
+        statsWriter.addMutations(TermStatistics.mutations(terms));
+      } catch (MutationsRejectedException e) {
+        e.printStackTrace();
+      }
+    }
+
+    /**
+     * Build the articles table mutation for a rendered page
+     */
+    public static Mutation articleMutation(WikiArticle page, String plaintext) {
+      
+      Mutation m = new Mutation(page.getTitle());
+      m.put(WikipediaConstants.CONTENTS_FAMILY, "", plaintext);
+      m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.NAMESPACE_QUAL, page.getNamespace());
+      m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.TIMESTAMP_QUAL, page.getTimeStamp());
+      m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.ID_QUAL, page.getId());
+      m.put(WikipediaConstants.METADATA_FAMILY, WikipediaConstants.REVISION_QUAL, page.getRevisionId());
+      
+      return m;
+    }
+
+    /**
+     * Build the term and date index mutations for a rendered page
+     */
+    public static List<Mutation> indexMutations(WikiArticle page, String plaintext) {
+      return indexMutations(page, terms(plaintext));
+    }
+    
+    /**
+     * Distinct index terms of a rendered page
+     */
+    public static Set<String> terms(String plaintext) {
+      
+      // tokenize article contents on whitespace, drop quotes and single letters, set to lowercase
+      HashSet<String> tokens = new HashSet<>();
+      TextTokenizer tokenizer = TextTokenizer.forIndex().reset(plaintext);
+      while (tokenizer.next()) {
+        tokens.add(tokenizer.token());
+      }
+      
+      return tokens;
+    }
+    
+    /**
+     * Build the term and date index mutations for a page's distinct terms
+     */
+    public static List<Mutation> indexMutations(WikiArticle page, Set<String> tokens) {
+      
+      List<Mutation> mutations = new ArrayList<>();
+      
+      for (String token : tokens) {
+        Mutation indexMutation = new Mutation(token);
+        indexMutation.put(WikipediaConstants.CONTENTS_FAMILY, page.getTitle(), BLANK_VALUE);
+
+        mutations.add(indexMutation);
+      }
+
+      byte[] dateBytes = dateRow(page.getTimeStamp());
+      if (dateBytes != null) {
+        Mutation dateIndexMutation = new Mutation(dateBytes);
+        dateIndexMutation.put(WikipediaConstants.TIMESTAMP_QUAL, page.getTitle(), BLANK_VALUE);
+        mutations.add(dateIndexMutation);
+      }
+      
+      return mutations;
+    }
+
+    /**
+     * Row of the date index entry for a page's timestamp, null if it can't be parsed
+     */
+    static byte[] dateRow(String timestamp) {
+      try {
+        return dateLexicoder.encode(dateFormat.parse(timestamp));
+      } catch (ParseException ex) {
+        Logger.getLogger(WikipediaIngestWithIndexExample.class.getName()).log(Level.SEVERE, null, ex);
+        return null;
+      }
+    }
+	}
+
+  /**
+   * Rewrites changed articles, updating only the index entries and
+   * document frequencies of terms that were added or removed
+   */
+  public static class IncrementalArticleHandler implements ChangedArticleFilter.Handler {
+
+    @Override
+    public void process(WikiArticle page, Article existing) throws SAXException {
 
-        // write index entries as well
+      String plaintext = model.render(converter, page.getText())
+              .replace("{{", " ")
+              .replace("}}", " ");
 
-        // tokenize article contents on whitespace and punctuation and set to lowercase
-        HashSet<String> tokens = Sets.newHashSet(plaintext.replace("\"", "").toLowerCase().split("\\s+"));
-        for (String token : tokens) {
-          if (token.length() < 2) {  // skip single letters
+      try {
+        writer.addMutation(WArticleFilter.articleMutation(page, plaintext));
+
+        Set<String> terms = WArticleFilter.terms(plaintext);
+        String oldContents = existing == null ? null : existing.getContents();
+        if (oldContents == null) {
+          indexWriter.addMutations(WArticleFilter.indexMutations(page, terms));
+          statsWriter.addMutations(TermStatistics.mutations(terms));
+          return;
+        }
+
+        Set<String> oldTerms = WArticleFilter.terms(oldContents);
+
+        // remove postings of terms no longer in the article
+        for (String term : oldTerms) {
+          if (terms.contains(term))
             continue;
-          }  
-          
-          Mutation indexMutation = new Mutation(token);
-          indexMutation.put(WikipediaConstants.CONTENTS_FAMILY, page.getTitle(), BLANK_VALUE);
 
-          indexWriter.addMutation(indexMutation);
+          Mutation posting = new Mutation(term);
+          posting.putDelete(WikipediaConstants.CONTENTS_FAMILY, page.getTitle());
+          indexWriter.addMutation(posting);
+          statsWriter.addMutation(TermStatistics.termMutation(term, -1));
         }
 
-        try {
-          Date d = dateFormat.parse(page.getTimeStamp());
-          
-          byte[] dateBytes = dateLexicoder.encode(d);
-          
-          Mutation dateIndexMutation = new Mutation(dateBytes);
-          dateIndexMutation.put(WikipediaConstants.TIMESTAMP_QUAL, page.getTitle(), BLANK_VALUE);
-          indexWriter.addMutation(dateIndexMutation);
-
-        } catch (ParseException ex) {
-          Logger.getLogger(WikipediaIngestWithIndexExample.class.getName()).log(Level.SEVERE, null, ex);
+        String oldTimestamp = existing.get(WikipediaConstants.TIMESTAMP_QUAL);
+        if (oldTimestamp != null && !oldTimestamp.equals(page.getTimeStamp())) {
+          byte[] oldDate = WArticleFilter.dateRow(oldTimestamp);
+          if (oldDate != null) {
+            Mutation posting = new Mutation(oldDate);
+            posting.putDelete(WikipediaConstants.TIMESTAMP_QUAL, page.getTitle());
+            indexWriter.addMutation(posting);
+          }
         }
 
+        // add postings of new terms, and the date posting
+        Set<String> added = new HashSet<>(terms);
+        added.removeAll(oldTerms);
+        indexWriter.addMutations(WArticleFilter.indexMutations(page, added));
+        for (String term : added)
+          statsWriter.addMutation(TermStatistics.termMutation(term, 1));
+
       } catch (MutationsRejectedException e) {
         e.printStackTrace();
       }
     }
-	}
+  }
 
 	
   public static void ingest(Connector conn, String ... pages) throws Exception {
     IArticleFilter handler = new WArticleFilter();
     WikiXMLParser wxp = new WikiXMLParser(WikipediaPagesFetcher.fetch(pages), handler);
     
-    _ingest(conn, wxp);
+    _ingest(conn, wxp, WikipediaSplitPlanner.forCluster(conn));
   }
   
   public static void ingest(Connector conn, String filename) throws Exception {
     IArticleFilter handler = new WArticleFilter();
-    WikiXMLParser wxp = new WikiXMLParser(WikipediaPagesFetcher.fetch(filename), handler);
+    WikiXMLParser wxp = new WikiXMLParser(filename, handler);
     
-    _ingest(conn, wxp);
+    // sample the start of the file to place split points
+    WikipediaSplitPlanner planner = WikipediaSplitPlanner.forCluster(conn);
+    planner.sample(filename, WikipediaSplitPlanner.DEFAULT_SAMPLE_SIZE);
+    
+    _ingest(conn, wxp, planner);
   }
   
 	public static void _ingest(Connector conn, WikiXMLParser wxp) {
+		_ingest(conn, wxp, WikipediaSplitPlanner.forCluster(conn));
+	}
+	
+	public static void _ingest(Connector conn, WikiXMLParser wxp, WikipediaSplitPlanner planner) {
+		_ingest(conn, wxp, planner, null);
+	}
+	
+  /**
+   * Reload a dump, rewriting only articles whose revision changed since
+   * they were last loaded. Postings and document frequencies of terms that
+   * disappeared from an article are removed.
+   */
+  public static void ingestIncremental(Connector conn, String filename) throws Exception {
+    
+    ChangedArticleFilter filter = new ChangedArticleFilter(
+            conn,
+            new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN),
+            ChangedArticleFilter.DEFAULT_BATCH_SIZE,
+            new Function<WikiArticle, String>() {
+              @Override
+              public String apply(WikiArticle page) {
+                return page.getTitle();
+              }
+            },
+            true,
+            new IncrementalArticleHandler());
+    WikiXMLParser wxp = new WikiXMLParser(filename, filter);
+    
+    WikipediaSplitPlanner planner = WikipediaSplitPlanner.forCluster(conn);
+    planner.sample(filename, WikipediaSplitPlanner.DEFAULT_SAMPLE_SIZE);
+    
+    _ingest(conn, wxp, planner, filter);
+    System.out.println(filter.getChanged() + " articles written, "
+            + filter.getSkipped() + " unchanged articles skipped.");
+  }
+  
+	private static void _ingest(Connector conn, WikiXMLParser wxp, WikipediaSplitPlanner planner, ChangedArticleFilter changes) {
     
 		try {
 	
-			if(!conn.tableOperations().exists(WikipediaConstants.ARTICLES_TABLE)) {
-				conn.tableOperations().create(WikipediaConstants.ARTICLES_TABLE);
+			if(WikipediaSplitPlanner.createTable(conn, WikipediaConstants.ARTICLES_TABLE, planner.articleSplits())) {
 				conn.securityOperations().changeUserAuthorizations("root", new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
 			}
-			if(!conn.tableOperations().exists(WikipediaConstants.INDEX_TABLE)) {
-				conn.tableOperations().create(WikipediaConstants.INDEX_TABLE);
+			if(WikipediaSplitPlanner.createTable(conn, WikipediaConstants.INDEX_TABLE, planner.indexSplits())) {
 				conn.securityOperations().changeUserAuthorizations("root", new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN));
 			}
+			TermStatistics.createTable(conn);
 			
 			// setup the wikipedia parser
 			converter = new PlainTextConverter(true);
@@ -150,12 +299,16 @@ public class WikipediaIngestWithIndexExample {
 			BatchWriterConfig conf = new BatchWriterConfig();
 			writer = conn.createBatchWriter(WikipediaConstants.ARTICLES_TABLE, conf);
 			indexWriter = conn.createBatchWriter(WikipediaConstants.INDEX_TABLE, conf);
+			statsWriter = conn.createBatchWriter(WikipediaConstants.INDEX_STATS_TABLE, conf);
 		
 			System.out.println("Parsing articles and indexing ...");
 			wxp.parse();
+			if(changes != null)
+				changes.finish();
 
 			writer.close();
 			indexWriter.close();
+			statsWriter.close();
 			System.out.println("done.");
 		}
 		catch (Exception e) {
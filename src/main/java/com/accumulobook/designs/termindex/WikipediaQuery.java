@@ -16,7 +16,11 @@
  */
 package com.accumulobook.designs.termindex;
 
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map.Entry;
 
 import org.apache.accumulo.core.cli.ClientOpts;
@@ -32,12 +36,19 @@ import org.apache.hadoop.io.Text;
 
 import com.beust.jcommander.Parameter;
 import com.google.common.base.Function;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.accumulobook.WikipediaConstants;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.accumulo.core.cli.BatchWriterOpts;
 import org.apache.accumulo.core.client.lexicoder.DateLexicoder;
 
@@ -47,40 +58,103 @@ public class WikipediaQuery {
 
     @Parameter(names = "--term", required = true, description = "term to search wikipedia articles for")
     String term;
+    
+    @Parameter(names = "--offset", description = "number of matches to skip")
+    int offset = 0;
+    
+    @Parameter(names = "--limit", description = "maximum number of matches to print")
+    int limit = Integer.MAX_VALUE;
   }
   
+  // number of titles looked up per articles table BatchScanner
+  public static final int FETCH_BATCH_SIZE = 100;
+  
+  // number of AND candidates checked against the other terms at a time
+  public static final int CANDIDATE_BATCH_SIZE = 1000;
+  
+  // stop counting postings once a term is known to be at least this common
+  public static final int FREQUENCY_ESTIMATE_LIMIT = 10000;
+  
   private Connector conn;
   private Authorizations auths;
+  private TermStatistics stats = null;
 
   public WikipediaQuery(Connector conn) {
     this.conn = conn;
     this.auths = new Authorizations(WikipediaConstants.ARTICLE_CONTENTS_TOKEN);
+    
+    // indexes loaded before the stats table existed fall back to counting postings
+    if(conn.tableOperations().exists(WikipediaConstants.INDEX_STATS_TABLE)) {
+      this.stats = new TermStatistics(conn, auths);
+    }
+  }
+  
+  /**
+   * @return cached document frequencies, or null if the index has no stats table
+   */
+  public TermStatistics getTermStatistics() {
+    return stats;
   }
 
   public void querySingleTerm(String term) throws TableNotFoundException {
+    querySingleTerm(term, 0, Integer.MAX_VALUE);
+  }
+  
+  public void querySingleTerm(String term, int offset, int limit) throws TableNotFoundException {
+
+    try (Results results = searchSingleTerm(term, offset, limit)) {
+      if(!results.hasNext()) {
+        System.out.println("no results");
+        return;
+      }
+
+      printResults(results);
+    }
+  }
+  
+  /**
+   * Stream the articles matching a term.
+   * 
+   * Postings come back from the index sorted by title, so offset and limit
+   * page through matches in title order. Articles are fetched in batches of
+   * FETCH_BATCH_SIZE as postings arrive, and postings past the limit are
+   * never read.
+   * 
+   * @param term
+   * @param offset number of matching titles to skip
+   * @param limit maximum number of titles to return
+   * @return article revision entries, each batch in no particular order. Close when done.
+   * @throws TableNotFoundException 
+   */
+  public Results searchSingleTerm(String term, int offset, int limit) throws TableNotFoundException {
 
     Scanner scanner = conn.createScanner(WikipediaConstants.INDEX_TABLE, auths);
     // lookup term in index
     scanner.setRange(Range.exact(term));
     
-    // store all article titles returned
-    HashSet<Range> matches = new HashSet<>();
-    for (Entry<Key, Value> entry : scanner) {
-      matches.add(new Range(entry.getKey().getColumnQualifier().toString()));
-    }
-
-    if(matches.isEmpty()) {
-      System.out.println("no results");
-      return;
+    return new Results(page(scanner, offset, limit), null);
+  }
+  
+  /**
+   * @return titles from index entries, skipping offset and stopping after limit
+   */
+  private static Iterator<String> page(Scanner scanner, int offset, int limit) {
+    
+    if(offset < 0 || limit < 0) {
+      throw new IllegalArgumentException("offset and limit must not be negative");
     }
     
-    for (Entry<Key, Value> entry : retrieveRecords(conn, matches)) {
-      System.out.println("Title:\t" + entry.getKey().getRow().toString()
-              + "\nRevision:\t" + entry.getValue().toString() + "\n");
+    // don't read a large first batch of postings just to return a few
+    if((long) offset + limit < 1000) {
+      scanner.setBatchSize(Math.max(1, offset + limit));
     }
+    
+    Iterator<String> titles = Iterators.transform(scanner.iterator(), new EntryToTitle());
+    Iterators.advance(titles, offset);
+    return Iterators.limit(titles, limit);
   }
   
-  private Iterable<Entry<Key,Value>> retrieveRecords(Connector conn, Collection<Range> matches) throws TableNotFoundException {
+  private BatchScanner retrieveRecords(Connector conn, Collection<Range> matches) throws TableNotFoundException {
     // retrieve original articles
     BatchScanner bscanner = conn.createBatchScanner(WikipediaConstants.ARTICLES_TABLE, auths, 10);
     bscanner.setRanges(matches);
@@ -95,34 +169,327 @@ public class WikipediaQuery {
   // returns records matching any term
   public void queryMultipleTerms(String ... terms) throws TableNotFoundException {
     
-    HashSet<String> matchingRecordIDs = new HashSet<>();
+    try (Results results = searchMultipleTerms(terms)) {
+      if(!results.hasNext()) {
+        System.out.println("no results");
+        return;
+      }
+
+      printResults(results);
+    }
+  }
+  
+  /**
+   * Stream the articles matching any of the terms.
+   * 
+   * All terms are looked up with one BatchScanner. Titles are fetched from
+   * the articles table in batches as soon as each batch of distinct titles
+   * has arrived, rather than after every posting has been read.
+   * 
+   * @param terms
+   * @return article revision entries, in no particular order. Close when done.
+   * @throws TableNotFoundException 
+   */
+  public Results searchMultipleTerms(String ... terms) throws TableNotFoundException {
     
+    List<Range> termRanges = new ArrayList<>();
     for(String term : terms) {
+      termRanges.add(Range.exact(term));
+    }
+    
+    BatchScanner termScanner = conn.createBatchScanner(WikipediaConstants.INDEX_TABLE, auths, 10);
+    termScanner.setRanges(termRanges);
+    
+    // titles can appear under several terms, only fetch each once
+    Iterator<String> titles = Iterators.filter(
+            Iterators.transform(termScanner.iterator(), new EntryToTitle()),
+            new FirstOccurrence());
+    
+    return new Results(titles, termScanner);
+  }
+  
+  // returns records matching all terms
+  public void queryAllTerms(String ... terms) throws TableNotFoundException {
+    
+    try (Results results = searchAllTerms(terms)) {
+      if(!results.hasNext()) {
+        System.out.println("no results");
+        return;
+      }
+
+      printResults(results);
+    }
+  }
+  
+  public Results searchAllTerms(String ... terms) throws TableNotFoundException {
+    return searchAllTerms(CANDIDATE_BATCH_SIZE, terms);
+  }
+  
+  /**
+   * Stream the articles matching all of the terms.
+   * 
+   * Only the postings of the rarest term are read in full. Its titles are
+   * taken as candidates candidateBatchSize at a time and checked against the
+   * remaining terms, rarest first, with one BatchScanner of point lookups per
+   * term, so each lookup only covers candidates that survived the last one.
+   * Client memory is bounded by the batch size no matter how common the
+   * other terms are.
+   * 
+   * @param candidateBatchSize number of candidate titles held at once
+   * @param terms
+   * @return article revision entries, in no particular order. Close when done.
+   * @throws TableNotFoundException 
+   */
+  public Results searchAllTerms(int candidateBatchSize, String ... terms) throws TableNotFoundException {
+    
+    if(terms.length == 0) {
+      throw new IllegalArgumentException("need at least one term");
+    }
+    
+    List<String> ordered = orderBySelectivity(terms);
+    if(ordered.isEmpty()) {
+      return new Results(Iterators.<String>emptyIterator(), null);
+    }
+    
+    return new Results(new Intersection(ordered, candidateBatchSize), null);
+  }
+  
+  /**
+   * Put distinct terms in order of increasing frequency, taken from the
+   * stats table when there is one
+   * 
+   * @param terms
+   * @return ordered terms, empty if any term has no postings
+   * @throws TableNotFoundException 
+   */
+  private List<String> orderBySelectivity(String ... terms) throws TableNotFoundException {
+    
+    Set<String> distinct = new LinkedHashSet<>(Arrays.asList(terms));
+    
+    final Map<String,Long> frequencies = new HashMap<>();
+    if(stats != null) {
+      frequencies.putAll(stats.documentFrequencies(distinct));
+    }
+    
+    for(String term : distinct) {
+      Long frequency = frequencies.get(term);
+      
+      // the stats can lag behind the index, so make sure a term is really absent
+      if(frequency == null || frequency == 0) {
+        frequency = estimateFrequency(term);
+        frequencies.put(term, frequency);
+      }
       
-      Scanner scanner = conn.createScanner(WikipediaConstants.INDEX_TABLE, auths);
-      // lookup term in index
-      scanner.setRange(Range.exact(term));
+      if(frequency == 0) {
+        // nothing can match all terms
+        return Collections.emptyList();
+      }
+    }
     
-      for (Entry<Key, Value> entry : scanner) {
-        matchingRecordIDs.add(entry.getKey().getColumnQualifier().toString());
+    List<String> ordered = new ArrayList<>(distinct);
+    Collections.sort(ordered, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return Long.compare(frequencies.get(a), frequencies.get(b));
       }
+    });
+    
+    return ordered;
+  }
+  
+  /**
+   * Count the postings of a term, stopping at FREQUENCY_ESTIMATE_LIMIT
+   * since beyond that we only need to know the term is common
+   */
+  private long estimateFrequency(String term) throws TableNotFoundException {
+    
+    Scanner scanner = conn.createScanner(WikipediaConstants.INDEX_TABLE, auths);
+    scanner.setRange(Range.exact(term));
+    scanner.setBatchSize(FREQUENCY_ESTIMATE_LIMIT);
+    
+    long count = 0;
+    Iterator<Entry<Key,Value>> postings = scanner.iterator();
+    while(count < FREQUENCY_ESTIMATE_LIMIT && postings.hasNext()) {
+      postings.next();
+      count++;
     }
     
-    if(matchingRecordIDs.isEmpty()) {
-      System.out.println("no results");
-      return;
+    return count;
+  }
+  
+  /**
+   * Titles posted under every term. Terms must be ordered rarest first.
+   */
+  private class Intersection extends AbstractIterator<String> {
+    
+    private final Text[] otherTerms;
+    private final int candidateBatchSize;
+    private final Iterator<String> candidates;
+    private Iterator<String> matches = Iterators.emptyIterator();
+    
+    private Intersection(List<String> terms, int candidateBatchSize) {
+      
+      this.otherTerms = new Text[terms.size() - 1];
+      for(int i = 1; i < terms.size(); i++) {
+        otherTerms[i - 1] = new Text(terms.get(i));
+      }
+      this.candidateBatchSize = candidateBatchSize;
+      
+      Scanner scanner;
+      try {
+        scanner = conn.createScanner(WikipediaConstants.INDEX_TABLE, auths);
+      } catch (TableNotFoundException ex) {
+        throw new IllegalStateException(ex);
+      }
+      scanner.setRange(Range.exact(terms.get(0)));
+      
+      this.candidates = Iterators.transform(scanner.iterator(), new EntryToTitle());
+    }
+
+    @Override
+    protected String computeNext() {
+      
+      while(!matches.hasNext()) {
+        
+        // postings of a term are sorted by title so the batch is too
+        Set<String> batch = new LinkedHashSet<>();
+        while(batch.size() < candidateBatchSize && candidates.hasNext()) {
+          batch.add(candidates.next());
+        }
+        
+        if(batch.isEmpty()) {
+          return endOfData();
+        }
+        
+        for(int i = 0; i < otherTerms.length && !batch.isEmpty(); i++) {
+          batch.retainAll(lookup(otherTerms[i], batch));
+        }
+        
+        matches = batch.iterator();
+      }
+      
+      return matches.next();
     }
     
-    // convert to Ranges
-    List<Range> ranges = Lists.newArrayList(
-            Iterables.transform(matchingRecordIDs, new StringToRange()));
-            
-    for (Entry<Key, Value> entry : retrieveRecords(conn, ranges)) {
+    /**
+     * @return those of the titles posted under term
+     */
+    private Set<String> lookup(Text term, Set<String> titles) {
+      
+      List<Range> ranges = new ArrayList<>(titles.size());
+      for(String title : titles) {
+        ranges.add(Range.exact(term, WikipediaConstants.CONTENTS_FAMILY_TEXT, new Text(title)));
+      }
+      
+      BatchScanner scanner;
+      try {
+        scanner = conn.createBatchScanner(WikipediaConstants.INDEX_TABLE, auths, 10);
+      } catch (TableNotFoundException ex) {
+        throw new IllegalStateException(ex);
+      }
+      
+      try {
+        scanner.setRanges(ranges);
+        
+        Set<String> found = new HashSet<>();
+        for(Entry<Key,Value> entry : scanner) {
+          found.add(entry.getKey().getColumnQualifier().toString());
+        }
+        return found;
+      } finally {
+        scanner.close();
+      }
+    }
+  }
+  
+  private void printResults(Iterator<Entry<Key,Value>> results) {
+    while(results.hasNext()) {
+      Entry<Key,Value> entry = results.next();
       System.out.println("Title:\t" + entry.getKey().getRow().toString()
               + "\nRevision:\t" + entry.getValue().toString() + "\n");
     }
   }
   
+  /**
+   * Article entries fetched lazily, FETCH_BATCH_SIZE titles at a time,
+   * from a stream of titles
+   */
+  public class Results extends AbstractIterator<Entry<Key,Value>> implements Closeable {
+    
+    private final Iterator<String> titles;
+    private final BatchScanner source;
+    private BatchScanner articleScanner = null;
+    private Iterator<Entry<Key,Value>> batch = Iterators.emptyIterator();
+    
+    private Results(Iterator<String> titles, BatchScanner source) {
+      this.titles = titles;
+      this.source = source;
+    }
+
+    @Override
+    protected Entry<Key, Value> computeNext() {
+      
+      while(!batch.hasNext()) {
+        closeArticleScanner();
+        
+        List<Range> ranges = new ArrayList<>(FETCH_BATCH_SIZE);
+        while(ranges.size() < FETCH_BATCH_SIZE && titles.hasNext()) {
+          ranges.add(new Range(titles.next()));
+        }
+        
+        if(ranges.isEmpty()) {
+          close();
+          return endOfData();
+        }
+        
+        try {
+          articleScanner = retrieveRecords(conn, ranges);
+        } catch (TableNotFoundException ex) {
+          throw new IllegalStateException(ex);
+        }
+        batch = articleScanner.iterator();
+      }
+      
+      return batch.next();
+    }
+    
+    private void closeArticleScanner() {
+      if(articleScanner != null) {
+        articleScanner.close();
+        articleScanner = null;
+      }
+    }
+    
+    /**
+     * Release scanner threads, needed if not reading to the end
+     */
+    @Override
+    public void close() {
+      closeArticleScanner();
+      if(source != null) {
+        source.close();
+      }
+    }
+  }
+  
+  private static class EntryToTitle implements Function<Entry<Key,Value>,String> {
+
+    @Override
+    public String apply(Entry<Key,Value> entry) {
+      return entry.getKey().getColumnQualifier().toString();
+    }
+  }
+  
+  private static class FirstOccurrence implements Predicate<String> {
+    
+    private final HashSet<String> seen = new HashSet<>();
+    
+    @Override
+    public boolean apply(String title) {
+      return seen.add(title);
+    }
+  }
+  
   final protected static char[] hexArray = "0123456789ABCDEF".toCharArray();
   
   public static String bytesToHex(byte[] bytes) {
@@ -138,6 +505,41 @@ public class WikipediaQuery {
   public void queryDateRange(
           final Date start, 
           final Date stop) throws TableNotFoundException {
+    queryDateRange(start, stop, 0, Integer.MAX_VALUE);
+  }
+  
+  public void queryDateRange(
+          final Date start, 
+          final Date stop,
+          final int offset,
+          final int limit) throws TableNotFoundException {
+    
+    try (Results results = searchDateRange(start, stop, offset, limit)) {
+      if(!results.hasNext()) {
+        System.out.println("no results");
+        return;
+      }
+
+      printResults(results);
+    }
+  }
+  
+  /**
+   * Stream the articles last modified between start and stop. Offset and
+   * limit page through matches in date order.
+   * 
+   * @param start
+   * @param stop
+   * @param offset number of matching titles to skip
+   * @param limit maximum number of titles to return
+   * @return article revision entries. Close when done.
+   * @throws TableNotFoundException 
+   */
+  public Results searchDateRange(
+          final Date start, 
+          final Date stop,
+          final int offset,
+          final int limit) throws TableNotFoundException {
     
     DateLexicoder dl = new DateLexicoder();
     
@@ -149,29 +551,7 @@ public class WikipediaQuery {
               new Text(dl.encode(start)), 
               new Text(dl.encode(stop))));
     
-    // store all article titles returned
-    HashSet<Range> matches = new HashSet<>();
-    for (Entry<Key, Value> entry : scanner) {
-      matches.add(new Range(entry.getKey().getColumnQualifier().toString()));
-    }
-
-    if(matches.isEmpty()) {
-      System.out.println("no results");
-      return;
-    }
-    
-    for (Entry<Key, Value> entry : retrieveRecords(conn, matches)) {
-      System.out.println("Title:\t" + entry.getKey().getRow().toString()
-              + "\nRevision:\t" + entry.getValue().toString() + "\n");
-    }
-  }
-  
-  private class StringToRange implements Function<String,Range> {
-
-    @Override
-    public Range apply(String f) {
-      return new Range(f);
-    }
+    return new Results(page(scanner, offset, limit), null);
   }
   
   // for querying an existing table
@@ -186,6 +566,6 @@ public class WikipediaQuery {
 		Connector connector = opts.getConnector();
 		
 		WikipediaQuery client = new WikipediaQuery(connector);
-    client.querySingleTerm(opts.term);
+    client.querySingleTerm(opts.term, opts.offset, opts.limit);
 	}
 }